@@ -0,0 +1,54 @@
+package org.jgroups.raft.client;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of durations in nanoseconds.
+ * <p>
+ * Each bucket covers a power of two, so the percentiles are an upper bound within a factor of two. This is enough to
+ * tell which stage dominates the latency, and it costs a single atomic increment to record.
+ */
+public class StageHistogram {
+  private final AtomicLongArray buckets = new AtomicLongArray(Long.SIZE);
+  private final LongAdder sum = new LongAdder();
+
+  public void record(long nanos) {
+    long value = Math.max(1, nanos);
+    buckets.incrementAndGet(Long.SIZE - 1 - Long.numberOfLeadingZeros(value));
+    sum.add(value);
+  }
+
+  public long count() {
+    long count = 0;
+    for (int i = 0; i < buckets.length(); i++) count += buckets.get(i);
+    return count;
+  }
+
+  public double meanMillis() {
+    long count = count();
+    return count == 0 ? 0 : sum.sum() / (count * 1_000_000.0);
+  }
+
+  /**
+   * @return The upper bound of the bucket holding the given percentile, in milliseconds.
+   */
+  public double percentileMillis(double percentile) {
+    long count = count();
+    if (count == 0) return 0;
+
+    long target = (long) Math.ceil(percentile / 100 * count);
+    long seen = 0;
+    for (int i = 0; i < buckets.length(); i++) {
+      seen += buckets.get(i);
+      if (seen >= target) return (1L << Math.min(i + 1, Long.SIZE - 2)) / 1_000_000.0;
+    }
+    return Long.MAX_VALUE / 1_000_000.0;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("count=%d mean=%.3fms p50<=%.3fms p99<=%.3fms",
+        count(), meanMillis(), percentileMillis(50), percentileMillis(99));
+  }
+}
@@ -2,38 +2,67 @@ package org.jgroups.raft.client;
 
 import org.jgroups.Address;
 import org.jgroups.blocks.cs.Receiver;
-import org.jgroups.blocks.cs.TcpClient;
+import org.jgroups.blocks.cs.BaseServer;
+import org.jgroups.blocks.cs.Client;
 import org.jgroups.logging.Log;
 import org.jgroups.logging.LogFactory;
+import org.jgroups.raft.data.Request;
 import org.jgroups.raft.data.Response;
+import org.jgroups.raft.data.ServerOverloadedException;
+import org.jgroups.raft.data.Stage;
+import org.jgroups.raft.server.Transport;
 import org.jgroups.util.ByteArrayDataInputStream;
 import org.jgroups.util.ByteArrayDataOutputStream;
 import org.jgroups.util.UUID;
 import org.jgroups.util.Util;
 
 import java.io.DataInput;
+import java.io.IOException;
 import java.net.ConnectException;
 import java.net.InetAddress;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.LockSupport;
 
 public class SyncClient<T> implements Receiver, AutoCloseable {
   protected final Log log = LogFactory.getLog(getClass());
   protected final String name;
   private final Map<UUID, CompletableFuture<T>> requests = new ConcurrentHashMap<>();
+  private final Map<UUID, PendingTrace> traces = new ConcurrentHashMap<>();
+  private final Map<Stage, StageHistogram> histograms = new EnumMap<>(Stage.class);
+  private final UUID clientId = UUID.randomUUID();
+  private final AtomicLong sequence = new AtomicLong();
+  private final Map<UUID, Long> sequences = new ConcurrentHashMap<>();
+  private final ConcurrentSkipListSet<Long> pending = new ConcurrentSkipListSet<>();
+  private final AtomicLong lastIndex = new AtomicLong();
 
   private long timeout;
+  private int retries;
+  private boolean tracing;
+  private volatile Map<String, Double> lastTrace;
+  private volatile long backoffUntil;
+  private volatile int overloads;
   private InetAddress server;
   private int serverPort;
-  private volatile TcpClient client;
+  private Transport transport = Transport.TCP;
+  private int receiveBufferSize;
+  private int sendBufferSize;
+  private volatile BaseServer client;
 
   public SyncClient(String name) {
     this.timeout = 5_000;
     this.name = name;
+    for (Stage stage : Stage.values()) histograms.put(stage, new StageHistogram());
   }
 
   public SyncClient<T> withTimeout(long timeout) {
@@ -41,6 +70,28 @@ public class SyncClient<T> implements Receiver, AutoCloseable {
     return this;
   }
 
+  /**
+   * Retries a request up to the given times after a timeout or a connection failure.
+   * <p>
+   * Only reads and writes sent within the client session are retried. The server applies a session write once, no
+   * matter how many times it is sent, so a retry either returns the result of the first attempt or applies it now.
+   * <p>
+   * With {@link Transport#TCP}, the server handles the requests in the reader thread of the connection, which is
+   * still blocked on the attempt that timed out. A retry after a timeout then opens a new connection instead.
+   */
+  public SyncClient<T> withRetries(int retries) {
+    this.retries = retries;
+    return this;
+  }
+
+  /**
+   * Traces every request, aggregating the time spent in each {@link Stage}.
+   */
+  public SyncClient<T> withTracing(boolean tracing) {
+    this.tracing = tracing;
+    return this;
+  }
+
   public SyncClient<T> withTargetAddress(InetAddress server) {
     this.server = server;
     return this;
@@ -51,12 +102,40 @@ public class SyncClient<T> implements Receiver, AutoCloseable {
     return this;
   }
 
-  public void start() {
-    log.info("Starting client: %s", name);
+  public SyncClient<T> withTransport(Transport transport) {
+    this.transport = transport;
+    return this;
+  }
+
+  /**
+   * The socket receive buffer in bytes. Zero or less keeps the system default.
+   */
+  public SyncClient<T> withReceiveBufferSize(int receiveBufferSize) {
+    this.receiveBufferSize = receiveBufferSize;
+    return this;
+  }
+
+  /**
+   * The socket send buffer in bytes. Zero or less keeps the system default.
+   */
+  public SyncClient<T> withSendBufferSize(int sendBufferSize) {
+    this.sendBufferSize = sendBufferSize;
+    return this;
+  }
+
+  public void start() throws Exception {
+    log.info("Starting %s client: %s", transport, name);
     if (client != null) throw new IllegalStateException("Client already created!");
 
-    client = new TcpClient(null, 0, server, serverPort);
-    client.receiver(this);
+    client = createClient();
+  }
+
+  private BaseServer createClient() throws Exception {
+    BaseServer c = transport.client(server, serverPort);
+    if (receiveBufferSize > 0) c.receiveBufferSize(receiveBufferSize);
+    if (sendBufferSize > 0) c.sendBufferSize(sendBufferSize);
+    c.receiver(this);
+    return c;
   }
 
   protected UUID prepareRequest() {
@@ -64,10 +143,67 @@ public class SyncClient<T> implements Receiver, AutoCloseable {
     UUID uuid = UUID.randomUUID();
     while (requests.containsKey(uuid)) uuid = UUID.randomUUID();
     requests.put(uuid, cf);
+    if (tracing) traces.put(uuid, new PendingTrace());
 
     return uuid;
   }
 
+  protected ByteArrayDataOutputStream prepareOutput(UUID uuid) throws Exception {
+    return prepareOutput(uuid, 128);
+  }
+
+  /**
+   * Creates the buffer for the request, already holding the {@link Request} header.
+   */
+  protected ByteArrayDataOutputStream prepareOutput(UUID uuid, int capacity) throws Exception {
+    ByteArrayDataOutputStream out = new ByteArrayDataOutputStream(capacity);
+    new Request(uuid, tracing ? Request.TRACE : 0).writeTo(out);
+    return out;
+  }
+
+  /**
+   * Creates the buffer for a write the server applies once within the client session. The session is only attached
+   * when retries are enabled, otherwise this is the same as {@link #prepareOutput(UUID, int)}.
+   */
+  protected ByteArrayDataOutputStream prepareSessionOutput(UUID uuid, int capacity) throws Exception {
+    if (retries <= 0) return prepareOutput(uuid, capacity);
+
+    long seq;
+    long lowestPending;
+    // Allocating and registering together, a concurrent request can not see a lowest pending above our sequence.
+    synchronized (pending) {
+      seq = sequence.incrementAndGet();
+      pending.add(seq);
+      lowestPending = pending.first();
+    }
+    sequences.put(uuid, seq);
+
+    ByteArrayDataOutputStream out = new ByteArrayDataOutputStream(capacity);
+    new Request(uuid, tracing ? Request.TRACE : 0)
+        .withSession(clientId, seq, lowestPending)
+        .writeTo(out);
+    return out;
+  }
+
+  /**
+   * @return The time in milliseconds spent in each stage by the last request this client completed, or null if
+   * tracing is disabled.
+   */
+  public Map<String, Double> lastTrace() {
+    return lastTrace;
+  }
+
+  /**
+   * @return The highest index reported by the server in a response to this client.
+   */
+  public long lastIndex() {
+    return lastIndex.get();
+  }
+
+  public Map<Stage, StageHistogram> stageHistograms() {
+    return Collections.unmodifiableMap(histograms);
+  }
+
   @Override
   public void receive(Address sender, byte[] buf, int offset, int length) {
     ByteArrayDataInputStream in = new ByteArrayDataInputStream(buf, offset, length);
@@ -91,7 +227,16 @@ public class SyncClient<T> implements Receiver, AutoCloseable {
       Response res = (Response) r;
       CompletableFuture<T> cf = requests.remove(res.getUuid());
       if (cf == null) {
-        throw new IllegalStateException("Request not found: " + res.getUuid());
+        // Both the first attempt and a retry of the request can reply.
+        log.debug("[%s] Ignoring response to completed request %s", name, res.getUuid());
+        return;
+      }
+
+      lastIndex.accumulateAndGet(res.getIndex(), Math::max);
+      PendingTrace trace = traces.get(res.getUuid());
+      if (trace != null) {
+        trace.received = System.nanoTime();
+        trace.server = res.getTrace();
       }
 
       if (res.isFailure()) {
@@ -103,23 +248,113 @@ public class SyncClient<T> implements Receiver, AutoCloseable {
   }
 
   protected T operation(UUID req, ByteArrayDataOutputStream out) throws Throwable {
+    return operation(req, out, false);
+  }
+
+  /**
+   * Sends the request and waits for the response.
+   *
+   * @param retriable: Whether sending the same request again is safe, either because it does not modify the state or
+   *                 because it was prepared with {@link #prepareSessionOutput(UUID, int)}.
+   */
+  protected T operation(UUID req, ByteArrayDataOutputStream out, boolean retriable) throws Throwable {
+    lastTrace = null;
+    PendingTrace trace = traces.get(req);
+    int attempt = 0;
     try {
-      assertConnected();
       CompletableFuture<T> cf = requests.get(req);
       if (cf == null) throw new IllegalStateException("Request is null before sending");
 
-      client.send(out.buffer(), 0, out.position());
-      return cf.get(timeout, TimeUnit.MILLISECONDS);
-    } catch (Exception e) {
-      Throwable t = handleThrowable(e);
-      log.error("[%s] Exception while sending request: %s", name, t.getMessage());
-      throw t;
+      while (true) {
+        try {
+          assertConnected();
+          awaitBackoff();
+          if (trace != null) trace.sent = System.nanoTime();
+          connection().send(out.buffer(), 0, out.position());
+          T res = cf.get(timeout, TimeUnit.MILLISECONDS);
+          overloads = 0;
+          if (trace != null) recordTrace(trace);
+          return res;
+        } catch (Exception e) {
+          Throwable t = handleThrowable(e);
+          if (t instanceof ServerOverloadedException) backoff();
+          if (retriable && attempt++ < retries && isRetriable(t)) {
+            log.warn("[%s] Retrying request %s (%d/%d) after: %s", name, req, attempt, retries, t.getMessage());
+            if (t instanceof TimeoutException && transport == Transport.TCP) reconnect();
+            continue;
+          }
+          log.error("[%s] Exception while sending request: %s", name, t.getMessage());
+          throw t;
+        }
+      }
+    } finally {
+      if (trace != null) traces.remove(req);
+      Long seq = sequences.remove(req);
+      if (seq != null) pending.remove(seq);
     }
   }
 
+  /**
+   * The request is still registered after a timeout or a connection failure, so the same bytes can be sent again.
+   * Any other failure is the definite response of the server.
+   */
+  private static boolean isRetriable(Throwable t) {
+    return t instanceof TimeoutException || t instanceof IOException;
+  }
+
+  /**
+   * After the server rejects a request for overload, we hold the next requests for an exponentially growing and
+   * jittered delay. The delay resets once a request succeeds.
+   */
+  private void backoff() {
+    int attempt = Math.min(overloads++, 7);
+    long delay = TimeUnit.MILLISECONDS.toNanos(10L << attempt);
+    backoffUntil = System.nanoTime() + ThreadLocalRandom.current().nextLong(delay / 2, delay + 1);
+  }
+
+  /**
+   * Replaces the connection, so the retry is not queued behind the attempt blocking the server reader thread. A late
+   * response to that attempt is lost with the old connection.
+   */
+  private void reconnect() throws Exception {
+    BaseServer old = client;
+    client = createClient();
+    old.stop();
+  }
+
+  private void awaitBackoff() {
+    long wait = Math.min(backoffUntil - System.nanoTime(), TimeUnit.MILLISECONDS.toNanos(timeout));
+    if (wait > 0) LockSupport.parkNanos(wait);
+  }
+
+  private void recordTrace(PendingTrace trace) {
+    if (trace.server == null) return;
+
+    long[] stages = trace.server.clone();
+    long serverTime = 0;
+    for (Stage stage : Stage.values()) {
+      if (stage.isServer() && stage.ordinal() < stages.length) serverTime += stages[stage.ordinal()];
+    }
+    stages[Stage.QUEUE.ordinal()] = trace.sent - trace.created;
+    stages[Stage.NETWORK.ordinal()] = Math.max(0, trace.received - trace.sent - serverTime);
+
+    Map<String, Double> millis = new LinkedHashMap<>();
+    for (Stage stage : Stage.values()) {
+      if (stage.ordinal() >= stages.length) continue;
+      histograms.get(stage).record(stages[stage.ordinal()]);
+      millis.put(stage.name().toLowerCase(), stages[stage.ordinal()] / 1_000_000.0);
+    }
+    lastTrace = millis;
+  }
+
   @Override
   public void close() {
     log.info("Stopping client at [%s:%d]", server, serverPort);
+    if (tracing) {
+      for (Map.Entry<Stage, StageHistogram> entry : histograms.entrySet()) {
+        log.info("[%s] %s: %s", name, entry.getKey(), entry.getValue());
+      }
+    }
     if (client != null) {
       client.stop();
     }
@@ -128,7 +363,7 @@ public class SyncClient<T> implements Receiver, AutoCloseable {
   }
 
   private void assertConnected() throws Exception {
-    if (client.isConnected()) return;
+    if (connection().isConnected()) return;
 
     long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeout);
     // We want the sleep time to increase in arithmetic progression
@@ -141,7 +376,7 @@ public class SyncClient<T> implements Receiver, AutoCloseable {
     while (expectedEndTime - System.nanoTime() > 0) {
       tryConnect();
 
-      if (client.isConnected())
+      if (connection().isConnected())
         return;
 
       LockSupport.parkNanos(sleepNanos);
@@ -151,6 +386,10 @@ public class SyncClient<T> implements Receiver, AutoCloseable {
     tryConnect();
   }
 
+  private Client connection() {
+    return (Client) client;
+  }
+
   private void tryConnect() throws Exception {
     try {
       client.start();
@@ -175,4 +414,11 @@ public class SyncClient<T> implements Receiver, AutoCloseable {
 
     return c == null ? t : c;
   }
+
+  private static final class PendingTrace {
+    private final long created = System.nanoTime();
+    private long sent;
+    private long received;
+    private long[] server;
+  }
 }
@@ -0,0 +1,64 @@
+package org.jgroups.raft.client;
+
+import java.nio.ByteBuffer;
+
+import org.jgroups.raft.server.Server;
+import org.jgroups.util.ByteArrayDataOutputStream;
+import org.jgroups.util.UUID;
+import org.jgroups.util.Util;
+
+/**
+ * A client for the replicated state machine holding raw byte values.
+ * <p>
+ * Values are written to the request as a length-prefixed byte sequence, skipping the String round trip of
+ * {@link SyncReplicatedStateMachineClient}. The request buffer is sized for the value up front, so large values are
+ * copied once into the buffer and sent without growing it.
+ * <p>
+ * Reading a key holding a String value, written by {@link SyncReplicatedStateMachineClient}, fails with an
+ * {@link IllegalStateException}.
+ */
+public class SyncReplicatedBytesClient extends SyncClient<Object> {
+  private static final int HEADER_SIZE = 64;
+
+  public SyncReplicatedBytesClient(String name) {
+    super(name);
+  }
+
+  public void put(long key, byte[] value) throws Throwable {
+    put(key, ByteBuffer.wrap(value));
+  }
+
+  public void put(long key, ByteBuffer value) throws Throwable {
+    UUID uuid = prepareRequest();
+    int length = value.remaining();
+    ByteArrayDataOutputStream out = prepareSessionOutput(uuid, HEADER_SIZE + length);
+    out.writeByte(Server.Command.PUT_BYTES.ordinal());
+    Util.objectToStream(String.valueOf(key), out);
+    out.writeInt(length);
+    if (value.hasArray()) {
+      out.write(value.array(), value.arrayOffset() + value.position(), length);
+    } else {
+      byte[] copy = new byte[length];
+      value.duplicate().get(copy);
+      out.write(copy);
+    }
+    operation(uuid, out, true);
+  }
+
+  public byte[] get(long key, boolean quorum) throws Throwable {
+    UUID uuid = prepareRequest();
+    ByteArrayDataOutputStream out = prepareOutput(uuid);
+    out.writeByte(Server.Command.GET.ordinal());
+    Util.objectToStream(String.valueOf(key), out);
+    out.writeBoolean(quorum);
+    Object value = operation(uuid, out, true);
+    if (value == null || value instanceof byte[]) return (byte[]) value;
+    throw new IllegalStateException(
+        String.format("Key %d holds a %s value, not raw bytes", key, value.getClass().getSimpleName()));
+  }
+
+  public ByteBuffer getBuffer(long key, boolean quorum) throws Throwable {
+    byte[] value = get(key, quorum);
+    return value == null ? null : ByteBuffer.wrap(value);
+  }
+}
@@ -17,11 +17,10 @@ public class SyncReplicatedCounterClient extends SyncClient<Long> {
 
   public long get() throws Throwable {
     UUID uuid = prepareRequest();
-    ByteArrayDataOutputStream out = new ByteArrayDataOutputStream();
+    ByteArrayDataOutputStream out = prepareOutput(uuid);
     out.writeByte(ReplicatedCounter.RequestType.GET.ordinal());
     Util.writeString(MY_TEST_COUNTER, out);
-    Util.objectToStream(uuid, out);
-    return Objects.requireNonNull(operation(uuid, out), "Get response can never be null");
+    return Objects.requireNonNull(operation(uuid, out, true), "Get response can never be null");
   }
 
   public void add(long delta) throws Throwable {
@@ -34,30 +33,28 @@ public class SyncReplicatedCounterClient extends SyncClient<Long> {
 
   private long addOperation(long delta, ReplicatedCounter.RequestType type) throws Throwable {
     UUID uuid = prepareRequest();
-    ByteArrayDataOutputStream out = new ByteArrayDataOutputStream();
+    ByteArrayDataOutputStream out = prepareSessionOutput(uuid, 128);
     out.writeByte(type.ordinal());
     Util.writeString(MY_TEST_COUNTER, out);
-    Util.objectToStream(uuid, out);
     out.writeLong(delta);
 
     return switch (type) {
       case ADD -> {
-        operation(uuid, out);
+        operation(uuid, out, true);
         yield 0;
       }
-      case ADD_AND_GET -> Objects.requireNonNull(operation(uuid, out), "AddAndGet response can never be null");
+      case ADD_AND_GET -> Objects.requireNonNull(operation(uuid, out, true), "AddAndGet response can never be null");
       default -> throw new IllegalStateException("Unexpected value: " + type);
     };
   }
 
   public boolean compareAndSet(long expected, long value) throws Throwable {
     UUID uuid = prepareRequest();
-    ByteArrayDataOutputStream out = new ByteArrayDataOutputStream();
+    ByteArrayDataOutputStream out = prepareSessionOutput(uuid, 128);
     out.writeByte(ReplicatedCounter.RequestType.COMPARE_AND_SET.ordinal());
     Util.writeString(MY_TEST_COUNTER, out);
-    Util.objectToStream(uuid, out);
     out.writeLong(expected);
     out.writeLong(value);
-    return operation(uuid, out) != 0L;
+    return operation(uuid, out, true) != 0L;
   }
 }
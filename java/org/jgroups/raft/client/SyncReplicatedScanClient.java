@@ -0,0 +1,50 @@
+package org.jgroups.raft.client;
+
+import org.jgroups.raft.data.ScanResult;
+import org.jgroups.raft.server.Server;
+import org.jgroups.util.ByteArrayDataOutputStream;
+import org.jgroups.util.UUID;
+import org.jgroups.util.Util;
+
+/**
+ * A client scanning the replicated state machine in key order.
+ * <p>
+ * A scan returns a page of at most {@code limit} entries in a single response. To read the next page, pass the
+ * {@link ScanResult#next()} key of the previous page as {@code after}. With {@code quorum}, each page is linearizable.
+ * The limit must be positive.
+ */
+public class SyncReplicatedScanClient extends SyncClient<ScanResult> {
+
+  public SyncReplicatedScanClient(String name) {
+    super(name);
+  }
+
+  /**
+   * Scans the keys from {@code from}, inclusive, to {@code to}, exclusive. A null bound is unbounded.
+   */
+  public ScanResult range(String from, String to, String after, int limit, boolean quorum) throws Throwable {
+    return scan(Server.Command.RANGE, from, to, after, limit, quorum);
+  }
+
+  /**
+   * Scans the keys starting with the prefix.
+   */
+  public ScanResult prefix(String prefix, String after, int limit, boolean quorum) throws Throwable {
+    return scan(Server.Command.PREFIX, prefix, null, after, limit, quorum);
+  }
+
+  private ScanResult scan(Server.Command command, String key, String to, String after, int limit, boolean quorum)
+      throws Throwable {
+    if (limit <= 0) throw new IllegalArgumentException("Scan limit must be positive: " + limit);
+
+    UUID uuid = prepareRequest();
+    ByteArrayDataOutputStream out = prepareOutput(uuid);
+    out.writeByte(command.ordinal());
+    Util.objectToStream(key, out);
+    Util.objectToStream(to, out);
+    Util.objectToStream(after, out);
+    out.writeInt(limit);
+    out.writeBoolean(quorum);
+    return operation(uuid, out, true);
+  }
+}
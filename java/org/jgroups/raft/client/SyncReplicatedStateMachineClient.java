@@ -1,6 +1,5 @@
 package org.jgroups.raft.client;
 
-import org.jgroups.raft.data.Request;
 import org.jgroups.raft.server.Server;
 import org.jgroups.util.ByteArrayDataOutputStream;
 import org.jgroups.util.UUID;
@@ -13,8 +12,14 @@ import org.jgroups.util.Util;
  * sends the request and blocks, waiting for the response.
  * <p>
  * This implementation is based on {@link ReplicatedStateMachineClient}.
+ * <p>
+ * With {@link #withRetries(int)}, writes are sent within the client session and retried after a timeout, so the
+ * server applies each of them exactly once.
+ * <p>
+ * The map also holds the raw values written by {@link SyncReplicatedBytesClient}. Reading one of those keys fails with
+ * an {@link IllegalStateException}, and a CAS on them returns false.
  */
-public class SyncReplicatedStateMachineClient extends SyncClient<String> {
+public class SyncReplicatedStateMachineClient extends SyncClient<Object> {
 
   public SyncReplicatedStateMachineClient(String name) {
     super(name);
@@ -22,32 +27,54 @@ public class SyncReplicatedStateMachineClient extends SyncClient<String> {
 
   public void put(long key, long value) throws Throwable {
     UUID uuid = prepareRequest();
-    ByteArrayDataOutputStream out = new ByteArrayDataOutputStream();
+    ByteArrayDataOutputStream out = prepareSessionOutput(uuid, 128);
     out.writeByte(Server.Command.PUT.ordinal());
     Util.objectToStream(String.valueOf(key), out);
-    Util.objectToStream(new Request(uuid, String.valueOf(value)), out);
-    operation(uuid, out);
+    Util.objectToStream(String.valueOf(value), out);
+    operation(uuid, out, true);
   }
 
   public String get(long key, boolean quorum) throws Throwable {
     UUID uuid = prepareRequest();
-    ByteArrayDataOutputStream out = new ByteArrayDataOutputStream();
+    ByteArrayDataOutputStream out = prepareOutput(uuid);
     out.writeByte(Server.Command.GET.ordinal());
     Util.objectToStream(String.valueOf(key), out);
-    Util.objectToStream(uuid, out);
     out.writeBoolean(quorum);
-    return operation(uuid, out);
+    return string(key, operation(uuid, out, true));
+  }
+
+  /**
+   * Reads from the connected node, once it applied up to the index and is within the staleness bound. Any node can
+   * serve the read, spreading the load across the replicas.
+   *
+   * @param key: The key to read.
+   * @param minIndex: The commit index the node must apply first, see {@link #lastIndex()}.
+   * @param maxStaleness: The maximum staleness of the node in milliseconds, ignored if negative.
+   */
+  public String getBounded(long key, long minIndex, long maxStaleness) throws Throwable {
+    UUID uuid = prepareRequest();
+    ByteArrayDataOutputStream out = prepareOutput(uuid);
+    out.writeByte(Server.Command.BOUNDED_GET.ordinal());
+    Util.objectToStream(String.valueOf(key), out);
+    out.writeLong(minIndex);
+    out.writeLong(maxStaleness);
+    return string(key, operation(uuid, out, true));
   }
 
   public boolean compareAndSet(long key, long from, long to) throws Throwable {
     UUID uuid = prepareRequest();
-    ByteArrayDataOutputStream out = new ByteArrayDataOutputStream();
+    ByteArrayDataOutputStream out = prepareSessionOutput(uuid, 128);
     out.writeByte(Server.Command.CAS.ordinal());
     Util.objectToStream(String.valueOf(key), out);
     Util.objectToStream(String.valueOf(from), out);
     Util.objectToStream(String.valueOf(to), out);
-    Util.objectToStream(uuid, out);
-    String cas = operation(uuid, out);
-    return Boolean.parseBoolean(cas);
+    Object cas = operation(uuid, out, true);
+    return Boolean.parseBoolean((String) cas);
+  }
+
+  private static String string(long key, Object value) {
+    if (value == null || value instanceof String) return (String) value;
+    throw new IllegalStateException(
+        String.format("Key %d holds a %s value, not a String", key, value.getClass().getSimpleName()));
   }
 }
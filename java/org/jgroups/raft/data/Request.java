@@ -6,49 +6,121 @@ import java.io.IOException;
 
 import org.jgroups.util.SizeStreamable;
 import org.jgroups.util.UUID;
-import org.jgroups.util.Util;
 
+/**
+ * The header of every request sent to the server.
+ * <p>
+ * The header identifies the request, so the server can reply even before decoding the command. The flags enable
+ * optional behavior for a single request, like {@link #TRACE}. The size of the header depends only on the flags, so
+ * the server can skip the command of a request it rejects.
+ */
 public class Request implements SizeStreamable {
+  /**
+   * The server stamps each stage and returns the durations in the {@link Response}.
+   */
+  public static final byte TRACE = 1;
+
+  /**
+   * The request belongs to a client session. The header carries the client id and the sequence number of the request
+   * within the session, so the server applies a retried write only once.
+   */
+  public static final byte SESSION = 2;
+
+  public static final int SIZE = Long.BYTES * 2 + Byte.BYTES;
+  public static final int SESSION_SIZE = Long.BYTES * 4;
+
   private UUID uuid;
-  private String value;
+  private byte flags;
+  private UUID clientId;
+  private long sequence;
+  private long lowestPending;
 
   public Request() { }
 
-  public Request(UUID uuid, String value) {
+  public Request(UUID uuid, byte flags) {
     this.uuid = uuid;
-    this.value = value;
+    this.flags = flags;
+  }
+
+  /**
+   * Adds the session to the request.
+   *
+   * @param clientId: The identifier of the client session.
+   * @param sequence: The sequence number of this request within the session.
+   * @param lowestPending: Every request in the session with a lower sequence number has completed, so the server can
+   *                     drop their results.
+   */
+  public Request withSession(UUID clientId, long sequence, long lowestPending) {
+    this.flags |= SESSION;
+    this.clientId = clientId;
+    this.sequence = sequence;
+    this.lowestPending = lowestPending;
+    return this;
   }
 
   public UUID getUuid() {
     return uuid;
   }
 
-  public String getValue() {
-    return value;
+  public byte getFlags() {
+    return flags;
+  }
+
+  public boolean isTraced() {
+    return (flags & TRACE) != 0;
+  }
+
+  public boolean hasSession() {
+    return (flags & SESSION) != 0;
+  }
+
+  public UUID getClientId() {
+    return clientId;
+  }
+
+  public long getSequence() {
+    return sequence;
+  }
+
+  public long getLowestPending() {
+    return lowestPending;
   }
 
   @Override
   public int serializedSize() {
-    return Util.size(uuid) + Util.size(value);
+    return hasSession() ? SIZE + SESSION_SIZE : SIZE;
   }
 
   @Override
   public void writeTo(DataOutput out) throws IOException {
-    Util.objectToStream(uuid, out);
-    Util.writeString(value, out);
+    out.writeLong(uuid.getMostSignificantBits());
+    out.writeLong(uuid.getLeastSignificantBits());
+    out.writeByte(flags);
+    if (hasSession()) {
+      out.writeLong(clientId.getMostSignificantBits());
+      out.writeLong(clientId.getLeastSignificantBits());
+      out.writeLong(sequence);
+      out.writeLong(lowestPending);
+    }
   }
 
   @Override
-  public void readFrom(DataInput in) throws IOException, ClassNotFoundException {
-    this.uuid = Util.objectFromStream(in);
-    this.value = Util.readString(in);
+  public void readFrom(DataInput in) throws IOException {
+    this.uuid = new UUID(in.readLong(), in.readLong());
+    this.flags = in.readByte();
+    if (hasSession()) {
+      this.clientId = new UUID(in.readLong(), in.readLong());
+      this.sequence = in.readLong();
+      this.lowestPending = in.readLong();
+    }
   }
 
   @Override
   public String toString() {
-    return "Payload{" +
+    return "Request{" +
         "uuid=" + uuid +
-        ", value='" + value + '\'' +
+        ", flags=" + flags +
+        (hasSession() ? ", client=" + clientId + ", sequence=" + sequence : "") +
         '}';
   }
 }
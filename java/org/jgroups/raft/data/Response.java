@@ -12,6 +12,8 @@ public class Response implements SizeStreamable {
   private UUID uuid;
   private Object response;
   private Throwable failure;
+  private long[] trace;
+  private long index;
 
   public Response() { }
 
@@ -39,9 +41,34 @@ public class Response implements SizeStreamable {
     return failure;
   }
 
+  /**
+   * Attaches the time in nanoseconds spent in each server {@link Stage}, indexed by the stage ordinal.
+   */
+  public Response withTrace(long[] trace) {
+    this.trace = trace;
+    return this;
+  }
+
+  public long[] getTrace() {
+    return trace;
+  }
+
+  /**
+   * Attaches an index at least as recent as the state the request observed.
+   */
+  public Response withIndex(long index) {
+    this.index = index;
+    return this;
+  }
+
+  public long getIndex() {
+    return index;
+  }
+
   @Override
   public int serializedSize() {
-    return Util.size(uuid) + Byte.BYTES + Util.size(response);
+    int size = Util.size(uuid) + Byte.BYTES + Util.size(response) + Long.BYTES + Byte.BYTES;
+    return trace == null ? size : size + Byte.BYTES + trace.length * Long.BYTES;
   }
 
   @Override
@@ -51,6 +78,13 @@ public class Response implements SizeStreamable {
     out.writeBoolean(success);
     if (success) Util.objectToStream(response, out);
     else Util.objectToStream(failure, out);
+
+    out.writeLong(index);
+    out.writeBoolean(trace != null);
+    if (trace != null) {
+      out.writeByte(trace.length);
+      for (long nanos : trace) out.writeLong(nanos);
+    }
   }
 
   @Override
@@ -64,9 +98,19 @@ public class Response implements SizeStreamable {
       this.response = null;
       this.failure = Util.objectFromStream(in);
     }
+
+    this.index = in.readLong();
+    if (in.readBoolean()) {
+      this.trace = new long[in.readByte()];
+      for (int i = 0; i < trace.length; i++) trace[i] = in.readLong();
+    }
   }
 
   public boolean isFailure() {
     return failure != null;
   }
+
+  public boolean isOverloaded() {
+    return failure instanceof ServerOverloadedException;
+  }
 }
@@ -0,0 +1,89 @@
+package org.jgroups.raft.data;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.jgroups.util.SizeStreamable;
+import org.jgroups.util.Util;
+
+/**
+ * A page of entries returned by a scan, in key order.
+ * <p>
+ * When the scan has more entries than the limit, {@link #next()} holds the last key of the page. Passing it as the
+ * key to start after retrieves the next page.
+ */
+public class ScanResult implements SizeStreamable {
+  private List<String> keys;
+  private List<Object> values;
+  private String next;
+
+  public ScanResult() { }
+
+  public ScanResult(List<String> keys, List<Object> values, String next) {
+    this.keys = keys;
+    this.values = values;
+    this.next = next;
+  }
+
+  public List<String> keys() {
+    return Collections.unmodifiableList(keys);
+  }
+
+  public List<Object> values() {
+    return Collections.unmodifiableList(values);
+  }
+
+  /**
+   * @return The key to start after for the next page, or null if this is the last page.
+   */
+  public String next() {
+    return next;
+  }
+
+  public int size() {
+    return keys.size();
+  }
+
+  @Override
+  public int serializedSize() {
+    int size = Integer.BYTES + Util.size(next);
+    for (int i = 0; i < keys.size(); i++) {
+      size += Util.size(keys.get(i)) + Util.size(values.get(i));
+    }
+    return size;
+  }
+
+  @Override
+  public void writeTo(DataOutput out) throws IOException {
+    out.writeInt(keys.size());
+    for (int i = 0; i < keys.size(); i++) {
+      Util.writeString(keys.get(i), out);
+      Util.objectToStream(values.get(i), out);
+    }
+    Util.writeString(next, out);
+  }
+
+  @Override
+  public void readFrom(DataInput in) throws IOException, ClassNotFoundException {
+    int size = in.readInt();
+    this.keys = new ArrayList<>(size);
+    this.values = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      keys.add(Util.readString(in));
+      values.add(Util.objectFromStream(in));
+    }
+    this.next = Util.readString(in);
+  }
+
+  @Override
+  public String toString() {
+    return "ScanResult{" +
+        "size=" + keys.size() +
+        ", next=" + next +
+        '}';
+  }
+}
@@ -0,0 +1,14 @@
+package org.jgroups.raft.data;
+
+/**
+ * The server rejected the request without executing it because too many requests are in flight.
+ * <p>
+ * This is a definite failure, the client can retry after backing off.
+ */
+public class ServerOverloadedException extends Exception {
+  private static final long serialVersionUID = 1L;
+
+  public ServerOverloadedException(String message) {
+    super(message);
+  }
+}
@@ -0,0 +1,45 @@
+package org.jgroups.raft.data;
+
+/**
+ * The stages a traced request goes through.
+ * <p>
+ * The server measures its own stages and returns them in the {@link Response}. The client measures the remaining
+ * ones. The time spent redirecting to the leader, appending, replicating, and applying happens inside RAFT, so it
+ * is all accounted as {@link #RAFT}.
+ */
+public enum Stage {
+  /**
+   * From creating the request in the client until writing it to the socket.
+   */
+  QUEUE(false),
+
+  /**
+   * The round trip time in the client minus the time spent in the server.
+   */
+  NETWORK(false),
+
+  /**
+   * From receiving the request in the server until submitting it to RAFT.
+   */
+  DECODE(true),
+
+  /**
+   * Waiting on RAFT to commit and apply the command.
+   */
+  RAFT(true),
+
+  /**
+   * From RAFT completing until the response is ready to send.
+   */
+  REPLY(true);
+
+  private final boolean server;
+
+  Stage(boolean server) {
+    this.server = server;
+  }
+
+  public boolean isServer() {
+    return server;
+  }
+}
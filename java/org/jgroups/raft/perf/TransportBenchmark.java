@@ -0,0 +1,226 @@
+package org.jgroups.raft.perf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.jgroups.raft.client.SyncReplicatedStateMachineClient;
+import org.jgroups.raft.perf.ValueSizeBenchmark.LatencyRecorder;
+import org.jgroups.raft.server.EmbeddedCluster;
+import org.jgroups.raft.server.Transport;
+
+/**
+ * Compares the client transports on connection scaling and request latency.
+ * <p>
+ * For each transport, we start an {@link EmbeddedCluster} and open a growing number of client connections to the
+ * leader. For each number of connections, a fixed number of threads issue puts and gets for the configured duration,
+ * each request on a random connection, so most connections stay idle as with many clients per node. We print the
+ * threads created for the connections, the time to open them, the operations per second, and the latency percentiles.
+ * The clients run in the same JVM, so the thread count includes the client side of each connection.
+ * <p>
+ * The threads share the connections, so with {@link Transport#NIO} a connection carries several requests at once. A
+ * per-connection budget then rejects the requests over it, counted as failures.
+ * <p>
+ * Usage:
+ * <pre>
+ *   java -cp server.jar org.jgroups.raft.perf.TransportBenchmark -transport tcp,nio -connections 16,256,2048
+ * </pre>
+ */
+public class TransportBenchmark {
+  private int nodes = 3;
+  private int threads = 16;
+  private int keys = 16;
+  private long duration = 20;
+  private long timeout = 10_000;
+  private int maxInFlightPerConnection;
+
+  public TransportBenchmark withNodes(int nodes) {
+    this.nodes = nodes;
+    return this;
+  }
+
+  public TransportBenchmark withThreads(int threads) {
+    this.threads = threads;
+    return this;
+  }
+
+  public TransportBenchmark withKeys(int keys) {
+    this.keys = keys;
+    return this;
+  }
+
+  public TransportBenchmark withDuration(long seconds) {
+    this.duration = seconds;
+    return this;
+  }
+
+  public TransportBenchmark withTimeout(long timeout) {
+    this.timeout = timeout;
+    return this;
+  }
+
+  public TransportBenchmark withMaxInFlightPerConnection(int maxInFlightPerConnection) {
+    this.maxInFlightPerConnection = maxInFlightPerConnection;
+    return this;
+  }
+
+  public List<Result> run(Transport transport, int basePort, int[] connections) throws Exception {
+    List<Result> results = new ArrayList<>(connections.length);
+    try (EmbeddedCluster cluster = new EmbeddedCluster()
+        .withNodes(nodes)
+        .withBasePort(basePort)
+        .withTimeout(timeout)
+        .withTransport(transport)
+        .withMaxInFlightPerConnection(maxInFlightPerConnection)) {
+      int leader = cluster.start().awaitLeader(30, TimeUnit.SECONDS);
+      for (int count : connections) {
+        results.add(run(transport, cluster, leader, count));
+      }
+    }
+    return results;
+  }
+
+  private Result run(Transport transport, EmbeddedCluster cluster, int leader, int count) throws Exception {
+    int threadsBefore = Thread.activeCount();
+    long start = System.nanoTime();
+    SyncReplicatedStateMachineClient[] clients = new SyncReplicatedStateMachineClient[count];
+    try {
+      for (int i = 0; i < count; i++) {
+        clients[i] = new SyncReplicatedStateMachineClient("bench-" + i);
+        clients[i].withTimeout(timeout)
+            .withTransport(transport)
+            .withTargetAddress(cluster.bindAddress())
+            .withTargetPort(cluster.port(leader));
+        clients[i].start();
+        // The connection opens with the first request.
+        try {
+          clients[i].get(0, false);
+        } catch (Throwable t) {
+          throw new Exception("Failed opening connection " + i, t);
+        }
+      }
+      long connectNanos = System.nanoTime() - start;
+      int threadsCreated = Thread.activeCount() - threadsBefore;
+
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(duration);
+      List<Worker> workers = new ArrayList<>(threads);
+      List<Thread> running = new ArrayList<>(threads);
+      long begin = System.nanoTime();
+      for (int i = 0; i < threads; i++) {
+        Worker worker = new Worker(clients, deadline);
+        Thread t = new Thread(worker, "bench-" + i);
+        t.start();
+        workers.add(worker);
+        running.add(t);
+      }
+      for (Thread t : running) t.join();
+
+      Result result = new Result(transport, count, threadsCreated, connectNanos, System.nanoTime() - begin);
+      for (Worker worker : workers) result.merge(worker);
+      return result;
+    } finally {
+      for (SyncReplicatedStateMachineClient client : clients) {
+        if (client != null) client.close();
+      }
+    }
+  }
+
+  private final class Worker implements Runnable {
+    private final SyncReplicatedStateMachineClient[] clients;
+    private final long deadline;
+    private final LatencyRecorder latencies = new LatencyRecorder();
+    private long failures;
+
+    private Worker(SyncReplicatedStateMachineClient[] clients, long deadline) {
+      this.clients = clients;
+      this.deadline = deadline;
+    }
+
+    @Override
+    public void run() {
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      while (System.nanoTime() - deadline < 0) {
+        SyncReplicatedStateMachineClient client = clients[random.nextInt(clients.length)];
+        long key = random.nextInt(keys);
+        long begin = System.nanoTime();
+        try {
+          if (random.nextBoolean()) client.get(key, true);
+          else client.put(key, random.nextInt());
+          latencies.record(System.nanoTime() - begin);
+        } catch (Throwable t) {
+          failures++;
+        }
+      }
+    }
+  }
+
+  public static final class Result {
+    private final Transport transport;
+    private final int connections;
+    private final int threadsCreated;
+    private final long connectNanos;
+    private final long elapsed;
+    private final LatencyRecorder latencies = new LatencyRecorder();
+    private long failures;
+
+    private Result(Transport transport, int connections, int threadsCreated, long connectNanos, long elapsed) {
+      this.transport = transport;
+      this.connections = connections;
+      this.threadsCreated = threadsCreated;
+      this.connectNanos = connectNanos;
+      this.elapsed = elapsed;
+    }
+
+    private void merge(Worker worker) {
+      latencies.merge(worker.latencies);
+      failures += worker.failures;
+    }
+
+    public double opsPerSecond() {
+      return latencies.count() / (elapsed / 1_000_000_000.0);
+    }
+
+    @Override
+    public String toString() {
+      return String.format("transport=%s connections=%d threads=%d connect=%dms ops/s=%.1f failures=%d%n  %s",
+          transport, connections, threadsCreated, TimeUnit.NANOSECONDS.toMillis(connectNanos), opsPerSecond(),
+          failures, latencies);
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    TransportBenchmark benchmark = new TransportBenchmark();
+    Transport[] transports = Transport.values();
+    int[] connections = { 16, 256, 1024 };
+    int basePort = 9000;
+    for (int i = 0; i < args.length; i++) {
+      switch (args[i]) {
+        case "-nodes" -> benchmark.withNodes(Integer.parseInt(args[++i]));
+        case "-transport" -> transports = Arrays.stream(args[++i].split(",")).map(Transport::parse).toArray(Transport[]::new);
+        case "-connections" -> connections = Arrays.stream(args[++i].split(",")).mapToInt(Integer::parseInt).toArray();
+        case "-threads" -> benchmark.withThreads(Integer.parseInt(args[++i]));
+        case "-keys" -> benchmark.withKeys(Integer.parseInt(args[++i]));
+        case "-duration" -> benchmark.withDuration(Long.parseLong(args[++i]));
+        case "-timeout" -> benchmark.withTimeout(Long.parseLong(args[++i]));
+        case "-port" -> basePort = Integer.parseInt(args[++i]);
+        case "-max-in-flight-per-connection" -> benchmark.withMaxInFlightPerConnection(Integer.parseInt(args[++i]));
+        default -> {
+          System.out.println("TransportBenchmark [-nodes n] [-transport tcp,nio] [-connections n[,n...]] " +
+              "[-threads n] [-keys n] [-duration seconds] [-timeout millis] [-port base-port] " +
+              "[-max-in-flight-per-connection n]");
+          return;
+        }
+      }
+    }
+
+    for (Transport transport : transports) {
+      // Each cluster binds its own ports, so a closing cluster does not clash with the next one.
+      for (Result result : benchmark.run(transport, basePort, connections)) {
+        System.out.println(result);
+      }
+      basePort += 100;
+    }
+  }
+}
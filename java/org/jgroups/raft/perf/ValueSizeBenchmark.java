@@ -0,0 +1,255 @@
+package org.jgroups.raft.perf;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.jgroups.raft.client.SyncReplicatedBytesClient;
+import org.jgroups.raft.server.EmbeddedCluster;
+
+/**
+ * Measures the throughput and latency of writing and reading values of a fixed size.
+ * <p>
+ * Each thread opens its own {@link SyncReplicatedBytesClient} against the target node and issues a mix of puts and
+ * gets over a small key space for the configured duration. The values are random bytes of the given size. At the end,
+ * we print the operations per second and the latency percentiles for each operation type.
+ * <p>
+ * Usage:
+ * <pre>
+ *   java -cp server.jar org.jgroups.raft.perf.ValueSizeBenchmark -host n1 -size 262144 -threads 8 -duration 30
+ * </pre>
+ * With <code>-embedded N</code>, the benchmark starts an {@link EmbeddedCluster} of N members in the same JVM and
+ * targets the first member.
+ */
+public class ValueSizeBenchmark {
+  private String host = "localhost";
+  private int port = 9000;
+  private int threads = 4;
+  private int valueSize = 1024;
+  private int keys = 16;
+  private double readRatio = 0.5;
+  private boolean quorumReads = true;
+  private long duration = 30;
+  private long timeout = 10_000;
+
+  public ValueSizeBenchmark withHost(String host) {
+    this.host = host;
+    return this;
+  }
+
+  public ValueSizeBenchmark withPort(int port) {
+    this.port = port;
+    return this;
+  }
+
+  public ValueSizeBenchmark withThreads(int threads) {
+    this.threads = threads;
+    return this;
+  }
+
+  public ValueSizeBenchmark withValueSize(int valueSize) {
+    this.valueSize = valueSize;
+    return this;
+  }
+
+  public ValueSizeBenchmark withKeys(int keys) {
+    this.keys = keys;
+    return this;
+  }
+
+  public ValueSizeBenchmark withReadRatio(double readRatio) {
+    this.readRatio = readRatio;
+    return this;
+  }
+
+  public ValueSizeBenchmark withQuorumReads(boolean quorumReads) {
+    this.quorumReads = quorumReads;
+    return this;
+  }
+
+  public ValueSizeBenchmark withDuration(long seconds) {
+    this.duration = seconds;
+    return this;
+  }
+
+  public ValueSizeBenchmark withTimeout(long timeout) {
+    this.timeout = timeout;
+    return this;
+  }
+
+  public Result run() throws Exception {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(duration);
+    List<Worker> workers = new ArrayList<>(threads);
+    for (int i = 0; i < threads; i++) {
+      SyncReplicatedBytesClient client = new SyncReplicatedBytesClient("bench-" + i);
+      client.withTimeout(timeout)
+          .withTargetAddress(InetAddress.getByName(host))
+          .withTargetPort(port);
+      client.start();
+      workers.add(new Worker(client, deadline));
+    }
+
+    long start = System.nanoTime();
+    List<Thread> running = new ArrayList<>(threads);
+    for (Worker worker : workers) {
+      Thread t = new Thread(worker, "bench-" + running.size());
+      t.start();
+      running.add(t);
+    }
+
+    for (Thread t : running) t.join();
+    long elapsed = System.nanoTime() - start;
+
+    Result result = new Result(valueSize, elapsed);
+    for (Worker worker : workers) {
+      worker.client.close();
+      result.merge(worker);
+    }
+    return result;
+  }
+
+  private final class Worker implements Runnable {
+    private final SyncReplicatedBytesClient client;
+    private final long deadline;
+    private final LatencyRecorder puts = new LatencyRecorder();
+    private final LatencyRecorder gets = new LatencyRecorder();
+    private long failures;
+
+    private Worker(SyncReplicatedBytesClient client, long deadline) {
+      this.client = client;
+      this.deadline = deadline;
+    }
+
+    @Override
+    public void run() {
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      byte[] value = new byte[valueSize];
+      random.nextBytes(value);
+
+      while (System.nanoTime() - deadline < 0) {
+        long key = random.nextInt(keys);
+        boolean read = random.nextDouble() < readRatio;
+        long begin = System.nanoTime();
+        try {
+          if (read) {
+            client.get(key, quorumReads);
+            gets.record(System.nanoTime() - begin);
+          } else {
+            client.put(key, value);
+            puts.record(System.nanoTime() - begin);
+          }
+        } catch (Throwable t) {
+          failures++;
+        }
+      }
+    }
+  }
+
+  /**
+   * Records latencies in nanoseconds. Each recorder is owned by a single thread and merged at the end.
+   */
+  public static final class LatencyRecorder {
+    private long[] samples = new long[1024];
+    private int size;
+
+    public void record(long nanos) {
+      if (size == samples.length) samples = Arrays.copyOf(samples, size << 1);
+      samples[size++] = nanos;
+    }
+
+    public void merge(LatencyRecorder other) {
+      for (int i = 0; i < other.size; i++) record(other.samples[i]);
+    }
+
+    public int count() {
+      return size;
+    }
+
+    public double percentileMillis(double percentile) {
+      if (size == 0) return 0;
+      long[] sorted = Arrays.copyOf(samples, size);
+      Arrays.sort(sorted);
+      int idx = (int) Math.min(size - 1, Math.ceil(percentile / 100 * size) - 1);
+      return sorted[Math.max(0, idx)] / 1_000_000.0;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("count=%d p50=%.2fms p99=%.2fms p999=%.2fms max=%.2fms",
+          size, percentileMillis(50), percentileMillis(99), percentileMillis(99.9), percentileMillis(100));
+    }
+  }
+
+  public static final class Result {
+    private final int valueSize;
+    private final long elapsed;
+    private final LatencyRecorder puts = new LatencyRecorder();
+    private final LatencyRecorder gets = new LatencyRecorder();
+    private long failures;
+
+    private Result(int valueSize, long elapsed) {
+      this.valueSize = valueSize;
+      this.elapsed = elapsed;
+    }
+
+    private void merge(Worker worker) {
+      puts.merge(worker.puts);
+      gets.merge(worker.gets);
+      failures += worker.failures;
+    }
+
+    public double opsPerSecond() {
+      return (puts.count() + gets.count()) / (elapsed / 1_000_000_000.0);
+    }
+
+    public double megabytesPerSecond() {
+      return opsPerSecond() * valueSize / (1024.0 * 1024.0);
+    }
+
+    @Override
+    public String toString() {
+      return String.format("value-size=%d ops/s=%.1f MB/s=%.2f failures=%d%n  put: %s%n  get: %s",
+          valueSize, opsPerSecond(), megabytesPerSecond(), failures, puts, gets);
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    ValueSizeBenchmark benchmark = new ValueSizeBenchmark();
+    int[] sizes = null;
+    int embedded = 0;
+    for (int i = 0; i < args.length; i++) {
+      switch (args[i]) {
+        case "-host" -> benchmark.withHost(args[++i]);
+        case "-port" -> benchmark.withPort(Integer.parseInt(args[++i]));
+        case "-threads" -> benchmark.withThreads(Integer.parseInt(args[++i]));
+        case "-size" -> sizes = Arrays.stream(args[++i].split(",")).mapToInt(Integer::parseInt).toArray();
+        case "-keys" -> benchmark.withKeys(Integer.parseInt(args[++i]));
+        case "-read-ratio" -> benchmark.withReadRatio(Double.parseDouble(args[++i]));
+        case "-dirty-reads" -> benchmark.withQuorumReads(false);
+        case "-duration" -> benchmark.withDuration(Long.parseLong(args[++i]));
+        case "-timeout" -> benchmark.withTimeout(Long.parseLong(args[++i]));
+        case "-embedded" -> embedded = Integer.parseInt(args[++i]);
+        default -> {
+          System.out.println("ValueSizeBenchmark [-host host] [-port port] [-threads n] [-size bytes[,bytes...]] " +
+              "[-keys n] [-read-ratio ratio] [-dirty-reads] [-duration seconds] [-timeout millis] [-embedded nodes]");
+          return;
+        }
+      }
+    }
+
+    if (sizes == null) sizes = new int[] { benchmark.valueSize };
+    try (EmbeddedCluster cluster = embedded > 0 ? new EmbeddedCluster().withNodes(embedded) : null) {
+      if (cluster != null) {
+        cluster.start().awaitLeader(30, TimeUnit.SECONDS);
+        benchmark.withHost(cluster.bindAddress().getHostAddress()).withPort(cluster.port(0));
+      }
+
+      for (int size : sizes) {
+        System.out.println(benchmark.withValueSize(size).run());
+      }
+    }
+  }
+}
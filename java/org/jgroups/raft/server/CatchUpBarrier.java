@@ -0,0 +1,69 @@
+package org.jgroups.raft.server;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.jgroups.JChannel;
+import org.jgroups.protocols.raft.RAFT;
+import org.jgroups.protocols.raft.REDIRECT;
+import org.jgroups.raft.Settable;
+import org.jgroups.util.Bits;
+
+/**
+ * Waits until the local state machine applied everything committed in the cluster.
+ * <p>
+ * We submit a marker entry through RAFT, redirecting to the leader if needed, and wait for the local state machine to
+ * apply it. Entries apply in log order, so once the marker applies locally, this node has applied every entry
+ * committed before it. The marker does not change the state machine.
+ * <p>
+ * State machines must route {@link #isMarker(byte[], int, int)} entries to {@link #apply(byte[], int)}.
+ */
+class CatchUpBarrier {
+  static final byte MARKER = Byte.MAX_VALUE;
+
+  private final JChannel ch;
+  private final Map<Long, CompletableFuture<Void>> pending = new ConcurrentHashMap<>();
+
+  CatchUpBarrier(JChannel ch) {
+    this.ch = ch;
+  }
+
+  boolean isMarker(byte[] data, int offset, int length) {
+    return length > 0 && data[offset] == MARKER;
+  }
+
+  byte[] apply(byte[] data, int offset) {
+    CompletableFuture<Void> cf = pending.get(Bits.readLong(data, offset + 1));
+    if (cf != null) cf.complete(null);
+    return null;
+  }
+
+  void await(long timeout) throws Exception {
+    long id = ThreadLocalRandom.current().nextLong();
+    CompletableFuture<Void> applied = new CompletableFuture<>();
+    while (pending.putIfAbsent(id, applied) != null) id = ThreadLocalRandom.current().nextLong();
+
+    try {
+      byte[] buf = new byte[1 + Long.BYTES];
+      buf[0] = MARKER;
+      Bits.writeLong(id, buf, 1);
+
+      long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+      settable().setAsync(buf, 0, buf.length).get(timeout, TimeUnit.MILLISECONDS);
+      applied.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+    } finally {
+      pending.remove(id);
+    }
+  }
+
+  private Settable settable() {
+    REDIRECT redirect = ch.getProtocolStack().findProtocol(REDIRECT.class);
+    if (redirect != null) return redirect;
+
+    RAFT raft = ch.getProtocolStack().findProtocol(RAFT.class);
+    return raft;
+  }
+}
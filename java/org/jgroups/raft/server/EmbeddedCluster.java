@@ -0,0 +1,355 @@
+package org.jgroups.raft.server;
+
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+
+import org.jgroups.Address;
+import org.jgroups.JChannel;
+import org.jgroups.logging.Log;
+import org.jgroups.logging.LogFactory;
+import org.jgroups.protocols.DISCARD;
+import org.jgroups.protocols.raft.RAFT;
+
+/**
+ * Runs a cluster of {@link Server} instances inside a single JVM.
+ * <p>
+ * Each member has its own name, log directory, and client port, and is created through the same
+ * <code>prepare*</code> methods as a standalone node. The members talk through an in-memory JGroups stack, by
+ * default <code>raft-embedded.xml</code>, so a cluster starts in seconds without containers or SSH. The stack must
+ * include {@link DISCARD} for {@link #partition(int[]...)} to work.
+ * <p>
+ * Members are addressed by their index, from 0 to <code>nodes - 1</code>. Clients connect to the loopback address at
+ * {@link #port(int)}.
+ * <p>
+ * {@link DISCARD} drops messages by address, and a restarted member joins with a new address. The cluster remembers the
+ * active partition and isolated members until {@link #heal()}, and applies them again after each {@link #restart(int)}.
+ * <p>
+ * Usage:
+ * <pre>
+ *   java -cp server.jar org.jgroups.raft.server.EmbeddedCluster -nodes 3 -s register
+ * </pre>
+ */
+public class EmbeddedCluster implements AutoCloseable {
+  private static final Log log = LogFactory.getLog(EmbeddedCluster.class);
+
+  private int nodes = 3;
+  private String props = "raft-embedded.xml";
+  private String stateMachine = "register";
+  private String logDir;
+  private int basePort = 9000;
+  private long timeout = 30_000;
+  private Transport transport = Transport.TCP;
+  private int maxInFlightPerConnection;
+
+  private final InetAddress bind = InetAddress.getLoopbackAddress();
+  private Server[] servers;
+  private String[] names;
+  private int[][] partition;
+  private final Set<Integer> isolated = new HashSet<>();
+
+  public EmbeddedCluster withNodes(int nodes) {
+    this.nodes = nodes;
+    return this;
+  }
+
+  public EmbeddedCluster withProps(String props) {
+    this.props = props;
+    return this;
+  }
+
+  public EmbeddedCluster withStateMachine(String stateMachine) {
+    this.stateMachine = stateMachine;
+    return this;
+  }
+
+  public EmbeddedCluster withLogDir(String logDir) {
+    this.logDir = logDir;
+    return this;
+  }
+
+  public EmbeddedCluster withBasePort(int basePort) {
+    this.basePort = basePort;
+    return this;
+  }
+
+  public EmbeddedCluster withTimeout(long timeout) {
+    this.timeout = timeout;
+    return this;
+  }
+
+  public EmbeddedCluster withTransport(Transport transport) {
+    this.transport = transport;
+    return this;
+  }
+
+  /**
+   * Bounds the requests in flight from a single connection on every member. Zero or less means unbounded.
+   */
+  public EmbeddedCluster withMaxInFlightPerConnection(int maxInFlightPerConnection) {
+    this.maxInFlightPerConnection = maxInFlightPerConnection;
+    return this;
+  }
+
+  public EmbeddedCluster start() throws Exception {
+    if (servers != null) throw new IllegalStateException("Cluster is already running");
+    if (logDir == null) logDir = Files.createTempDirectory("raft-embedded").toString();
+
+    names = new String[nodes];
+    for (int i = 0; i < nodes; i++) names[i] = "n" + (i + 1);
+
+    servers = new Server[nodes];
+    for (int i = 0; i < nodes; i++) {
+      servers[i] = startServer(i);
+    }
+    log.info("Embedded cluster %s started with logs at %s", Arrays.toString(names), logDir);
+    return this;
+  }
+
+  /**
+   * Stops the member, keeping its log directory, so {@link #restart(int)} recovers from the persisted state.
+   */
+  public void kill(int node) throws Exception {
+    Server server = servers[node];
+    if (server == null) return;
+
+    log.info("Killing %s", names[node]);
+    servers[node] = null;
+    server.close();
+  }
+
+  public void restart(int node) throws Exception {
+    kill(node);
+    log.info("Restarting %s", names[node]);
+    servers[node] = startServer(node);
+    reapply();
+  }
+
+  /**
+   * Splits the running members into the given groups. Members only receive messages from their own group.
+   * Members not listed in any group are isolated.
+   */
+  public synchronized void partition(int[]... groups) {
+    heal();
+    partition = groups;
+    applyPartition();
+  }
+
+  private void applyPartition() {
+    int[][] groups = partition;
+    for (int[] group : groups) {
+      Set<Integer> members = Arrays.stream(group).boxed().collect(Collectors.toSet());
+      for (int node : group) {
+        DISCARD discard = discard(node);
+        if (discard == null) continue;
+
+        for (int other = 0; other < nodes; other++) {
+          Address address = address(other);
+          if (!members.contains(other) && address != null) discard.addIgnoreMember(address);
+        }
+      }
+    }
+
+    Set<Integer> listed = new HashSet<>();
+    for (int[] group : groups) for (int node : group) listed.add(node);
+    for (int node = 0; node < nodes; node++) {
+      if (!listed.contains(node)) discardOthers(node);
+    }
+  }
+
+  public synchronized void isolate(int node) {
+    isolated.add(node);
+    discardOthers(node);
+  }
+
+  private void discardOthers(int node) {
+    DISCARD discard = discard(node);
+    if (discard == null) return;
+
+    for (int other = 0; other < nodes; other++) {
+      Address address = address(other);
+      if (other != node && address != null) discard.addIgnoreMember(address);
+    }
+  }
+
+  public synchronized void heal() {
+    partition = null;
+    isolated.clear();
+    resetDiscards();
+  }
+
+  /**
+   * Applies the active faults again, covering the new address of a restarted member.
+   */
+  private synchronized void reapply() {
+    if (partition == null && isolated.isEmpty()) return;
+
+    resetDiscards();
+    if (partition != null) applyPartition();
+    for (int node : isolated) discardOthers(node);
+  }
+
+  private void resetDiscards() {
+    for (int node = 0; node < nodes; node++) {
+      DISCARD discard = discard(node);
+      if (discard != null) discard.resetIgnoredMembers();
+    }
+  }
+
+  /**
+   * Blocks until all running members agree on a leader, returning the index of the leader.
+   */
+  public int awaitLeader(long timeout, TimeUnit unit) throws TimeoutException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    while (System.nanoTime() - deadline < 0) {
+      int leader = leader();
+      if (leader >= 0) return leader;
+      LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(50));
+    }
+    throw new TimeoutException("No leader elected after " + unit.toMillis(timeout) + " ms");
+  }
+
+  /**
+   * @return The index of the leader all running members agree on, or -1 if there is no agreement.
+   */
+  public int leader() {
+    Address leader = null;
+    for (int node = 0; node < nodes; node++) {
+      RAFT raft = raft(node);
+      if (raft == null) continue;
+
+      Address current = raft.leader();
+      if (current == null || (leader != null && !leader.equals(current))) return -1;
+      leader = current;
+    }
+
+    for (int node = 0; node < nodes; node++) {
+      if (leader != null && leader.equals(address(node))) return node;
+    }
+    return -1;
+  }
+
+  public Server server(int node) {
+    return servers[node];
+  }
+
+  public String name(int node) {
+    return names[node];
+  }
+
+  public int port(int node) {
+    return basePort + node;
+  }
+
+  public InetAddress bindAddress() {
+    return bind;
+  }
+
+  public int size() {
+    return nodes;
+  }
+
+  /**
+   * Stops every member. Failures are logged, and an interrupt is kept on the thread, so closing never throws.
+   */
+  @Override
+  public void close() {
+    if (servers == null) return;
+
+    for (int node = 0; node < nodes; node++) {
+      try {
+        kill(node);
+      } catch (Exception e) {
+        if (e instanceof InterruptedException) Thread.currentThread().interrupt();
+        log.error("Failed stopping %s", names[node], e);
+      }
+    }
+    servers = null;
+  }
+
+  private Server startServer(int node) throws Exception {
+    Path dir = Files.createDirectories(Path.of(logDir, names[node]));
+    Server server = new Server()
+        .withProps(props)
+        .withTimeout(timeout)
+        .withTransport(transport)
+        .withMaxInFlightPerConnection(maxInFlightPerConnection)
+        .withJmx(false);
+
+    // The node properties are system properties, read by the stack when the channel is created.
+    // Members set them and are prepared one at a time, so the properties do not leak between them.
+    synchronized (EmbeddedCluster.class) {
+      server.withName(names[node])
+          .withMembers(String.join(",", names))
+          .withLogDir(dir.toString());
+      switch (stateMachine) {
+        case "register" -> server.prepareReplicatedMapStateMachine();
+        case "counter" -> server.prepareCounterStateMachine();
+        case "election" -> server.prepareElectionInspection();
+        default -> throw new IllegalArgumentException("Unknown state machine: " + stateMachine);
+      }
+    }
+
+    return server.start(bind, port(node));
+  }
+
+  private JChannel channel(int node) {
+    Server server = servers[node];
+    return server == null ? null : server.channel();
+  }
+
+  private Address address(int node) {
+    JChannel ch = channel(node);
+    return ch == null ? null : ch.getAddress();
+  }
+
+  private RAFT raft(int node) {
+    JChannel ch = channel(node);
+    return ch == null ? null : ch.getProtocolStack().findProtocol(RAFT.class);
+  }
+
+  private DISCARD discard(int node) {
+    JChannel ch = channel(node);
+    return ch == null ? null : ch.getProtocolStack().findProtocol(DISCARD.class);
+  }
+
+  public static void main(String[] args) throws Exception {
+    EmbeddedCluster cluster = new EmbeddedCluster();
+    for (int i = 0; i < args.length; i++) {
+      switch (args[i]) {
+        case "-nodes" -> cluster.withNodes(Integer.parseInt(args[++i]));
+        case "-p" -> cluster.withProps(args[++i]);
+        case "-s" -> cluster.withStateMachine(args[++i]);
+        case "-log-dir" -> cluster.withLogDir(args[++i]);
+        case "-port" -> cluster.withBasePort(Integer.parseInt(args[++i]));
+        case "-timeout" -> cluster.withTimeout(Long.parseLong(args[++i]));
+        case "-transport" -> cluster.withTransport(Transport.parse(args[++i]));
+        default -> {
+          System.out.println("EmbeddedCluster [-nodes n] [-p props] [-s register|counter|election] " +
+              "[-log-dir dir] [-port base-port] [-timeout millis] [-transport tcp|nio]");
+          return;
+        }
+      }
+    }
+
+    cluster.start();
+    Runtime.getRuntime().addShutdownHook(new Thread(cluster::close));
+
+    int leader = cluster.awaitLeader(30, TimeUnit.SECONDS);
+    List<String> endpoints = new ArrayList<>(cluster.size());
+    for (int node = 0; node < cluster.size(); node++) {
+      endpoints.add(cluster.name(node) + "=" + cluster.bindAddress().getHostAddress() + ":" + cluster.port(node));
+    }
+    log.info("Leader is %s, members listening at %s", cluster.name(leader), endpoints);
+    Thread.currentThread().join();
+  }
+}
@@ -0,0 +1,94 @@
+package org.jgroups.raft.server;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
+
+import org.jgroups.JChannel;
+import org.jgroups.protocols.raft.RAFT;
+import org.jgroups.util.Bits;
+
+/**
+ * Serves reads from the local state machine of any node, within a bound on the index and staleness.
+ * <p>
+ * The leader periodically submits a tick entry with its wall clock time. Once a tick applies locally, this node
+ * applied every entry committed before the leader created the tick, so the local state is at most as stale as the
+ * time since the tick. A node cut from the majority stops applying ticks, and its reads wait until they time out.
+ * The bound assumes the clocks of the nodes are synchronized.
+ * <p>
+ * State machines must route {@link #isTick(byte[], int, int)} entries to {@link #apply(byte[], int)}.
+ */
+class FollowerReads {
+  static final byte TICK = Byte.MAX_VALUE - 1;
+
+  private final JChannel ch;
+  private volatile long lastTick;
+
+  FollowerReads(JChannel ch) {
+    this.ch = ch;
+  }
+
+  boolean isTick(byte[] data, int offset, int length) {
+    return length > 0 && data[offset] == TICK;
+  }
+
+  byte[] apply(byte[] data, int offset) {
+    lastTick = Math.max(lastTick, Bits.readLong(data, offset + 1));
+    return null;
+  }
+
+  /**
+   * Starts submitting ticks while this node is the leader. The ticks stop once the channel closes.
+   *
+   * @param interval: Time between ticks in milliseconds.
+   */
+  void startTicks(long interval) {
+    Thread t = new Thread(() -> tick(interval), "ticks-" + ch.getName());
+    t.setDaemon(true);
+    t.start();
+  }
+
+  private void tick(long interval) {
+    CompletableFuture<byte[]> previous = null;
+    while (!ch.isClosed()) {
+      LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(interval));
+      RAFT raft = ch.getProtocolStack().findProtocol(RAFT.class);
+      // Without a majority the ticks would only pile up in the log.
+      if (raft == null || !raft.isLeader() || (previous != null && !previous.isDone())) continue;
+
+      byte[] buf = new byte[1 + Long.BYTES];
+      buf[0] = TICK;
+      Bits.writeLong(System.currentTimeMillis(), buf, 1);
+      try {
+        previous = raft.setAsync(buf, 0, buf.length);
+      } catch (Exception ignore) {
+        previous = null;
+      }
+    }
+  }
+
+  /**
+   * Blocks until the local state machine applied up to the index and is within the staleness bound.
+   *
+   * @param minIndex: The index the local state machine must apply, ignored if zero or less.
+   * @param maxStaleness: The maximum staleness in milliseconds, ignored if negative.
+   * @param timeout: Maximum time to wait in milliseconds.
+   * @return The index applied by the local state machine.
+   */
+  long await(long minIndex, long maxStaleness, long timeout) throws Exception {
+    RAFT raft = ch.getProtocolStack().findProtocol(RAFT.class);
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+    while (true) {
+      long applied = raft.commitIndex();
+      long staleness = System.currentTimeMillis() - lastTick;
+      if (applied >= minIndex && (maxStaleness < 0 || staleness <= maxStaleness)) return applied;
+
+      if (deadline - System.nanoTime() <= 0)
+        throw new TimeoutException(String.format("%s applied %d of %d and is %dms stale, bound is %dms",
+            ch.getName(), applied, minIndex, staleness, maxStaleness));
+
+      LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+    }
+  }
+}
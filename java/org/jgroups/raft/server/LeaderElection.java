@@ -12,6 +12,7 @@ import org.jgroups.raft.RaftHandle;
 import org.jgroups.raft.data.Request;
 import org.jgroups.raft.data.Response;
 import org.jgroups.util.SizeStreamable;
+import org.jgroups.util.UUID;
 import org.jgroups.util.Util;
 
 /**
@@ -32,15 +33,15 @@ public class LeaderElection implements TestStateMachine {
   }
 
   @Override
-  public Response receive(DataInput in) throws Exception {
+  public Response receive(Request request, DataInput in) throws Exception {
+    UUID uuid = request.getUuid();
+    RequestEvents.decoded("INSPECT", null);
     log.info("Inspecting leader!!");
     Address address = raft.leader();
     long term = raft.currentTerm();
     ElectionInspection ie = new ElectionInspection(address == null ? null : address.toString(), term);
     log.info("Inspection result: %s", ie);
-
-    Request request = Util.objectFromStream(in);
-    return new Response(request.getUuid(), ie);
+    return new Response(uuid, ie);
   }
 
   @Override
@@ -1,6 +1,8 @@
 package org.jgroups.raft.server;
 
 import java.io.DataInput;
+import java.io.DataOutput;
+import java.util.concurrent.TimeUnit;
 
 import org.jgroups.JChannel;
 import org.jgroups.blocks.atomic.SyncCounter;
@@ -8,41 +10,121 @@ import org.jgroups.logging.Log;
 import org.jgroups.logging.LogFactory;
 import org.jgroups.raft.Options;
 import org.jgroups.raft.blocks.CounterService;
+import org.jgroups.raft.data.Request;
 import org.jgroups.raft.data.Response;
+import org.jgroups.util.ByteArrayDataInputStream;
+import org.jgroups.util.ByteArrayDataOutputStream;
 import org.jgroups.util.UUID;
 import org.jgroups.util.Util;
 
+/**
+ * The replicated counter tested by the counter workload.
+ * <p>
+ * Writes from a request with a session are submitted as a {@link #SESSION} entry, holding the client id and sequence
+ * number before the command. These entries are applied here instead of by {@link CounterService}, going through the
+ * {@link SessionTable}, so a client retrying a write after a timeout gets the result of the first attempt instead of
+ * adding twice. The sessions are appended to the counters in the snapshot.
+ */
 public class ReplicatedCounter extends CounterService implements TestStateMachine {
 
   protected final Log log = LogFactory.getLog(getClass());
+  static final byte SESSION = Byte.MAX_VALUE - 2;
+
+  private static final int SESSION_HEADER = Byte.BYTES + Request.SESSION_SIZE;
+
+  private final CatchUpBarrier barrier;
+  private final SessionTable sessions = new SessionTable();
 
   public ReplicatedCounter(JChannel ch) {
     super(ch);
     // By default, we want a linearizable counter.
     allow_dirty_reads = false;
+    barrier = new CatchUpBarrier(ch);
+  }
+
+  @Override
+  public byte[] apply(byte[] data, int offset, int length, boolean serialize_response) throws Exception {
+    RequestEvents.Apply event = RequestEvents.beginApply();
+    try {
+      if (barrier.isMarker(data, offset, length)) return barrier.apply(data, offset);
+      if (length > 0 && data[offset] == SESSION) return applySession(data, offset, length);
+      return super.apply(data, offset, length, serialize_response);
+    } finally {
+      // The counter entries are encoded by CounterService, so we only record their size.
+      if (RequestEvents.endApply(event)) RequestEvents.commitApply(event, "COUNTER", 0, length);
+    }
+  }
+
+  private byte[] applySession(byte[] data, int offset, int length) throws Exception {
+    ByteArrayDataInputStream in = new ByteArrayDataInputStream(data, offset + 1, length - 1);
+    UUID client = new UUID(in.readLong(), in.readLong());
+    long sequence = in.readLong();
+    long lowestPending = in.readLong();
+    // Always serialize the response, a retry applied in another replica may be waiting for it.
+    return sessions.apply(client, sequence, lowestPending, () -> applyCommand(in));
+  }
+
+  /**
+   * Applies a counter write straight to the counters, the same way {@link CounterService} does. A missing counter
+   * starts at zero, as created by the requests.
+   */
+  private byte[] applyCommand(DataInput in) throws Exception {
+    RequestType type = RequestType.values()[in.readByte()];
+    String name = Util.readString(in);
+    synchronized (counters) {
+      long current = counters.getOrDefault(name, 0L);
+      return switch (type) {
+        case ADD, ADD_AND_GET -> {
+          long value = current + in.readLong();
+          counters.put(name, value);
+          yield Util.objectToByteBuffer(value);
+        }
+        case COMPARE_AND_SET -> {
+          long expected = in.readLong();
+          long value = in.readLong();
+          boolean set = current == expected;
+          if (set) counters.put(name, value);
+          yield Util.objectToByteBuffer(set);
+        }
+        default -> throw new IllegalArgumentException("Not a session command: " + type);
+      };
+    }
+  }
+
+  @Override
+  public void awaitCaughtUp(long timeout) throws Exception {
+    barrier.await(timeout);
   }
 
-  public Response receive(DataInput in) throws Exception {
+  public Response receive(Request request, DataInput in) throws Exception {
+    UUID uuid = request.getUuid();
     RequestType type = RequestType.values()[in.readByte()];
     String name = Util.readString(in);
-    UUID uuid = Util.objectFromStream(in);
+    RequestEvents.decoded(type.name(), name);
+    RequestTracer.submitted();
+
+    if (request.hasSession() && type != RequestType.GET) return sessionWrite(request, type, name, in);
 
     return switch (type) {
       case GET -> {
         SyncCounter counter = getOrCreateCounter(name, 0L).sync();
-        yield new Response(uuid, counter.get());
+        long value = counter.get();
+        RequestTracer.completed();
+        yield new Response(uuid, value);
       }
       case ADD -> {
         SyncCounter counter = getOrCreateCounter(name, 0L)
             .withOptions(Options.create(true))
             .sync();
         counter.addAndGet(in.readLong());
+        RequestTracer.completed();
         yield new Response(uuid, (Object) null);
       }
       case ADD_AND_GET -> {
         SyncCounter counter = getOrCreateCounter(name, 0L).sync();
         long value = in.readLong();
         long result = counter.addAndGet(value);
+        RequestTracer.completed();
         log.info("ADDING AND GET: (%s) -> (%s)", value, result);
         yield new Response(uuid, result);
       }
@@ -51,12 +133,57 @@ public class ReplicatedCounter extends CounterService implements TestStateMachin
         long expected = in.readLong();
         long value = in.readLong();
         boolean result = counter.compareAndSet(expected, value);
+        RequestTracer.completed();
         log.info("CAS: (%s) -> (%s)? %s", expected, value, result);
         yield new Response(uuid, result ? 1L : 0L);
       }
     };
   }
 
+  /**
+   * Submits the write wrapped in a {@link #SESSION} entry, with the same response as the write outside a session.
+   */
+  private Response sessionWrite(Request request, RequestType type, String name, DataInput in) throws Exception {
+    ByteArrayDataOutputStream out = new ByteArrayDataOutputStream(SESSION_HEADER + 64);
+    out.writeByte(SESSION);
+    out.writeLong(request.getClientId().getMostSignificantBits());
+    out.writeLong(request.getClientId().getLeastSignificantBits());
+    out.writeLong(request.getSequence());
+    out.writeLong(request.getLowestPending());
+    out.writeByte(type.ordinal());
+    Util.writeString(name, out);
+    out.writeLong(in.readLong());
+    if (type == RequestType.COMPARE_AND_SET) out.writeLong(in.readLong());
+
+    byte[] rsp;
+    try {
+      rsp = raft.set(out.buffer(), 0, out.position(), repl_timeout, TimeUnit.MILLISECONDS);
+    } finally {
+      RequestTracer.completed();
+    }
+
+    Object result = Util.objectFromByteBuffer(rsp);
+    log.info("%s in session %s/%d: %s", type, request.getClientId(), request.getSequence(), result);
+    return switch (type) {
+      case ADD -> new Response(request.getUuid(), (Object) null);
+      case COMPARE_AND_SET -> new Response(request.getUuid(), Boolean.TRUE.equals(result) ? 1L : 0L);
+      default -> new Response(request.getUuid(), result);
+    };
+  }
+
+  @Override
+  public void writeContentTo(DataOutput out) throws Exception {
+    super.writeContentTo(out);
+    sessions.writeTo(out);
+  }
+
+  @Override
+  public void readContentFrom(DataInput in) throws Exception {
+    super.readContentFrom(in);
+    sessions.readFrom(in);
+    log.debug("Restored %d client sessions", sessions.size());
+  }
+
   public enum RequestType {
     GET,
     ADD,
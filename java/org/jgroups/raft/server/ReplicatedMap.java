@@ -1,14 +1,25 @@
 package org.jgroups.raft.server;
 
 import java.io.DataInput;
+import java.io.DataOutput;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.TreeSet;
 import java.util.concurrent.TimeUnit;
 
 import org.jgroups.JChannel;
 import org.jgroups.logging.Log;
 import org.jgroups.logging.LogFactory;
+import org.jgroups.protocols.raft.RAFT;
 import org.jgroups.raft.blocks.ReplicatedStateMachine;
 import org.jgroups.raft.data.Request;
 import org.jgroups.raft.data.Response;
+import org.jgroups.raft.data.ScanResult;
+import org.jgroups.util.Bits;
 import org.jgroups.util.ByteArrayDataInputStream;
 import org.jgroups.util.ByteArrayDataOutputStream;
 import org.jgroups.util.UUID;
@@ -16,71 +27,265 @@ import org.jgroups.util.Util;
 
 import static org.jgroups.raft.server.Server.extractCause;
 
-public class ReplicatedMap<K, V> extends ReplicatedStateMachine<K, V> implements TestStateMachine {
+/**
+ * The replicated map tested by the register workloads.
+ * <p>
+ * Values are either a {@link String}, from {@link Server.Command#PUT}, or raw bytes, from
+ * {@link Server.Command#PUT_BYTES}. A put replaces the value whatever its type, while a CAS over raw bytes always
+ * fails.
+ * <p>
+ * Writes from a request with a session are wrapped in a {@link #SESSION} entry, holding the client id and sequence
+ * number before the write itself. Applying the entry goes through the {@link SessionTable}, so a client retrying a
+ * write after a timeout gets the result of the first attempt instead of applying it twice.
+ * <p>
+ * Every write and quorum read is wrapped in an {@link #INDEXED} entry. Applying it prefixes the result with the last
+ * index appended by the applying node, which is at least the index of the entry. The result the request waits on
+ * comes from the leader, so the response carries an index covering the write, even when this node did not learn the
+ * commit yet.
+ * <p>
+ * Besides linearizable and dirty reads, a {@link Server.Command#BOUNDED_GET} reads from the local map once it is
+ * within the index and staleness bound of the request, see {@link FollowerReads}.
+ * <p>
+ * The keys are also kept in an ordered index, updated while applying the entries and rebuilt after restoring a
+ * snapshot. The index serves {@link Server.Command#RANGE} and {@link Server.Command#PREFIX} scans in key order, with
+ * paging. A linearizable scan waits on a single {@link CatchUpBarrier} and reads the whole page from the local map.
+ */
+public class ReplicatedMap extends ReplicatedStateMachine<String, Object> implements TestStateMachine {
 
   protected final Log log = LogFactory.getLog(getClass());
   public static final byte CAS = 4;
+  public static final byte PUT_BYTES = 5;
+  public static final byte SESSION = 6;
+  public static final byte INDEXED = 7;
+
+  private static final int SESSION_HEADER = Byte.BYTES + Request.SESSION_SIZE;
+  private static final int MAX_SCAN_LIMIT = 10_000;
+
+  private final CatchUpBarrier barrier;
+  private final FollowerReads reads;
+  private final RAFT node;
+  private final SessionTable sessions = new SessionTable();
+  // Guarded by map.
+  private final NavigableSet<String> index = new TreeSet<>();
 
   public ReplicatedMap(JChannel ch) {
     super(ch);
     allow_dirty_reads = false;
+    barrier = new CatchUpBarrier(ch);
+    reads = new FollowerReads(ch);
+    node = ch.getProtocolStack().findProtocol(RAFT.class);
+  }
+
+  /**
+   * Submits a tick every interval while leader, so followers can bound the staleness of reads. Zero or less disables
+   * the ticks, and reads with a staleness bound time out.
+   */
+  public ReplicatedMap tickInterval(long interval) {
+    if (interval > 0) reads.startTicks(interval);
+    return this;
   }
 
   @Override
   public byte[] apply(byte[] data, int offset, int length, boolean serialize_response) throws Exception {
+    RequestEvents.Apply event = RequestEvents.beginApply();
+    try {
+      return applyEntry(data, offset, length, serialize_response);
+    } finally {
+      if (RequestEvents.endApply(event)) describe(event, data, offset, length);
+    }
+  }
+
+  private byte[] applyEntry(byte[] data, int offset, int length, boolean serialize_response) throws Exception {
+    if (barrier.isMarker(data, offset, length)) return barrier.apply(data, offset);
+    if (reads.isTick(data, offset, length)) return reads.apply(data, offset);
+
+    if (data[offset] == INDEXED) {
+      // Always serialize the response, the index is only useful to whoever waits for it.
+      byte[] rsp = applyEntry(data, offset + 1, length - 1, true);
+      byte[] buf = new byte[Long.BYTES + (rsp == null ? 0 : rsp.length)];
+      Bits.writeLong(node.lastAppended(), buf, 0);
+      if (rsp != null) System.arraycopy(rsp, 0, buf, Long.BYTES, rsp.length);
+      return buf;
+    }
+
+    if (data[offset] == SESSION) {
+      ByteArrayDataInputStream in = new ByteArrayDataInputStream(data, offset + 1, length - 1);
+      UUID client = new UUID(in.readLong(), in.readLong());
+      long sequence = in.readLong();
+      long lowestPending = in.readLong();
+      // Always serialize the response, a retry applied in another replica may be waiting for it.
+      return sessions.apply(client, sequence, lowestPending,
+          () -> applyEntry(data, offset + SESSION_HEADER, length - SESSION_HEADER, true));
+    }
+
     if (data[offset] == CAS) {
-      ByteArrayDataInputStream in = new ByteArrayDataInputStream(data, offset + 1, length);
-      K key = Util.objectFromStream(in);
-      V from = Util.objectFromStream(in);
-      V to = Util.objectFromStream(in);
+      ByteArrayDataInputStream in = new ByteArrayDataInputStream(data, offset + 1, length - 1);
+      String key = Util.objectFromStream(in);
+      Object from = Util.objectFromStream(in);
+      Object to = Util.objectFromStream(in);
       synchronized (map) {
-        V res = map.compute(key, (ignore, curr) -> {
+        Object res = map.compute(key, (ignore, curr) -> {
           if (curr == null) {
             // We do not want to create a new entry.
             // We return false for this case.
             return null;
           }
 
-          return curr.equals(from)
+          // A raw byte value never matches, instead of comparing the array identity.
+          return !(curr instanceof byte[]) && curr.equals(from)
               ? to
               : curr;
         });
+        index(key);
         return Util.objectToByteBuffer(res == to && to != null);
       }
     }
 
+    if (data[offset] == PUT_BYTES) {
+      ByteArrayDataInputStream in = new ByteArrayDataInputStream(data, offset + 1, length - 1);
+      String key = Util.objectFromStream(in);
+      byte[] value = new byte[in.readInt()];
+      in.readFully(value);
+      synchronized (map) {
+        map.put(key, value);
+        index.add(key);
+      }
+      return null;
+    }
+
+    if (data[offset] == PUT || data[offset] == REMOVE) {
+      String key = Util.objectFromStream(new ByteArrayDataInputStream(data, offset + 1, length - 1));
+      byte[] rsp = super.apply(data, offset, length, serialize_response);
+      synchronized (map) {
+        index(key);
+      }
+      return rsp;
+    }
+
     return super.apply(data, offset, length, serialize_response);
   }
 
-  public Response receive(DataInput in) throws Exception {
+  /**
+   * Commits the apply event with the command and key of the entry, decoded only while recording.
+   */
+  private void describe(RequestEvents.Apply event, byte[] data, int offset, int length) {
+    int start = data[offset] == INDEXED ? offset + 1 : offset;
+    if (data[start] == SESSION) start += SESSION_HEADER;
+    int end = offset + length;
+    byte command = data[start];
+    int keyHash = 0;
+    if (command == PUT || command == REMOVE || command == GET || command == CAS || command == PUT_BYTES) {
+      try {
+        Object key = Util.objectFromStream(new ByteArrayDataInputStream(data, start + 1, end - start - 1));
+        keyHash = Objects.hashCode(key);
+      } catch (Exception ignore) { }
+    }
+    RequestEvents.commitApply(event, entryName(command), keyHash, length);
+  }
+
+  private static String entryName(byte command) {
+    return switch (command) {
+      case PUT -> "PUT";
+      case REMOVE -> "REMOVE";
+      case GET -> "GET";
+      case CAS -> "CAS";
+      case PUT_BYTES -> "PUT_BYTES";
+      case CatchUpBarrier.MARKER -> "MARKER";
+      case FollowerReads.TICK -> "TICK";
+      default -> String.valueOf(command);
+    };
+  }
+
+  /**
+   * Updates the index with the key after applying an entry. Must hold the lock on the map.
+   */
+  private void index(String key) {
+    if (map.containsKey(key)) index.add(key);
+    else index.remove(key);
+  }
+
+  public Response receive(Request request, DataInput in) throws Exception {
+    UUID uuid = request.getUuid();
     int ordinal = in.readByte();
-    K key = Util.objectFromStream(in);
+    String key = Util.objectFromStream(in);
+    RequestEvents.decoded(Server.Command.values()[ordinal].name(), key);
     return switch (Server.Command.values()[ordinal]) {
       case PUT -> {
-        Request request = Util.objectFromStream(in);
-        log.info("PUT: %s --> %s", key, request);
-        put(key, cast(request.getValue()));
-        yield new Response(request.getUuid(), (String) null);
+        Object value = Util.objectFromStream(in);
+        log.info("PUT: %s --> %s", key, value);
+        long index = put(request, key, value);
+        yield new Response(uuid, (String) null).withIndex(index);
+      }
+      case PUT_BYTES -> {
+        int length = in.readInt();
+        log.info("PUT_BYTES: %s --> %d bytes", key, length);
+        long index = putBytes(request, key, in, length);
+        yield new Response(uuid, (Object) null).withIndex(index);
       }
       case GET -> {
         log.info("GET: " + key);
-        UUID uuid = Util.objectFromStream(in);
-        boolean before = allowDirtyReads();
+        if (!in.readBoolean()) {
+          Object value;
+          synchronized (map) {
+            value = map.get(key);
+          }
+          yield new Response(uuid, value);
+        }
+
+        ByteArrayDataOutputStream out = prepareEntry(null, 128);
+        out.writeByte(GET);
+        Util.objectToStream(key, out);
+        Indexed rsp = submit(out.buffer(), out.position());
+        Object value = Util.objectFromByteBuffer(rsp.result());
+        yield new Response(uuid, value).withIndex(rsp.index());
+      }
+      case BOUNDED_GET -> {
+        long minIndex = in.readLong();
+        long maxStaleness = in.readLong();
         try {
-          allowDirtyReads(!in.readBoolean());
-          yield new Response(uuid, get(key));
-        } finally {
-          allowDirtyReads(before);
+          RequestTracer.submitted();
+          long applied = reads.await(minIndex, maxStaleness, repl_timeout);
+          RequestTracer.completed();
+          Object value;
+          synchronized (map) {
+            value = map.get(key);
+          }
+          log.info("BOUNDED_GET: %s at index %d", key, applied);
+          yield new Response(uuid, value);
+        } catch (Exception e) {
+          RequestTracer.completed();
+          log.warn("BOUNDED_GET failed: %s", e.getMessage());
+          yield new Response(uuid, e);
+        }
+      }
+      case RANGE, PREFIX -> {
+        String to = Util.objectFromStream(in);
+        String after = Util.objectFromStream(in);
+        int limit = in.readInt();
+        boolean quorum = in.readBoolean();
+        try {
+          RequestTracer.submitted();
+          if (quorum) barrier.await(repl_timeout);
+          RequestTracer.completed();
+          ScanResult result = ordinal == Server.Command.PREFIX.ordinal()
+              ? scan(key, null, key, after, limit)
+              : scan(key, to, null, after, limit);
+          log.info("SCAN: [%s, %s) after %s -> %d entries", key, to, after, result.size());
+          yield new Response(uuid, result);
+        } catch (Exception e) {
+          RequestTracer.completed();
+          log.error("SCAN failed: %s", key, e);
+          yield new Response(uuid, extractCause(e));
         }
       }
       case CAS -> {
-        V from = Util.objectFromStream(in);
-        V to = Util.objectFromStream(in);
-        UUID uuid = Util.objectFromStream(in);
+        Object from = Util.objectFromStream(in);
+        Object to = Util.objectFromStream(in);
         try {
-          boolean cas = compareAndSet(key, from, to);
+          Indexed rsp = compareAndSet(request, key, from, to);
+          boolean cas = Util.objectFromByteBuffer(rsp.result());
           log.info("CAS: %s (%s) -> (%s)? %s", key, from, to, cas);
-          yield new Response(uuid, String.valueOf(cas));
+          yield new Response(uuid, String.valueOf(cas)).withIndex(rsp.index());
         } catch (Exception e) {
           log.error("CAS failed: %s", key, e);
           yield new Response(uuid, extractCause(e));
@@ -89,19 +294,152 @@ public class ReplicatedMap<K, V> extends ReplicatedStateMachine<K, V> implements
     };
   }
 
-  private <O> O cast(Object o) {
-    return (O) o;
+  @Override
+  public void awaitCaughtUp(long timeout) throws Exception {
+    barrier.await(timeout);
+  }
+
+  @Override
+  public void writeContentTo(DataOutput out) throws Exception {
+    super.writeContentTo(out);
+    sessions.writeTo(out);
+  }
+
+  @Override
+  public void readContentFrom(DataInput in) throws Exception {
+    super.readContentFrom(in);
+    synchronized (map) {
+      index.clear();
+      index.addAll(map.keySet());
+    }
+    sessions.readFrom(in);
+    log.debug("Restored %d client sessions", sessions.size());
   }
 
-  public boolean compareAndSet(K key, V from, V to) throws Exception {
-    ByteArrayDataOutputStream out = new ByteArrayDataOutputStream(256);
+  /**
+   * Reads a page of entries from the local map in key order.
+   *
+   * @param from: The first key, inclusive, or null to start from the lowest key.
+   * @param to: The last key, exclusive, or null to scan to the end.
+   * @param prefix: Only keys starting with the prefix, or null for any key.
+   * @param after: Resume after this key, returned as the next key of the previous page, or null.
+   * @param limit: The maximum number of entries in the page, must be positive.
+   * @throws IllegalArgumentException If the limit is zero or negative.
+   */
+  public ScanResult scan(String from, String to, String prefix, String after, int limit) {
+    if (limit <= 0) throw new IllegalArgumentException("Scan limit must be positive: " + limit);
+
+    int max = Math.min(limit, MAX_SCAN_LIMIT);
+    List<String> keys = new ArrayList<>(Math.min(max, 64));
+    List<Object> values = new ArrayList<>(Math.min(max, 64));
+    String next = null;
+    synchronized (map) {
+      NavigableSet<String> tail = index;
+      if (after != null && (from == null || after.compareTo(from) >= 0)) tail = index.tailSet(after, false);
+      else if (from != null) tail = index.tailSet(from, true);
+
+      Iterator<String> it = tail.iterator();
+      while (it.hasNext()) {
+        String key = it.next();
+        if (to != null && key.compareTo(to) >= 0) break;
+        if (prefix != null && !key.startsWith(prefix)) break;
+        if (keys.size() == max) {
+          next = keys.get(keys.size() - 1);
+          break;
+        }
+        keys.add(key);
+        values.add(map.get(key));
+      }
+    }
+    return new ScanResult(keys, values, next);
+  }
+
+  public boolean compareAndSet(String key, Object from, Object to) throws Exception {
+    return Util.objectFromByteBuffer(compareAndSet(null, key, from, to).result());
+  }
+
+  private Indexed compareAndSet(Request request, String key, Object from, Object to) throws Exception {
+    ByteArrayDataOutputStream out = prepareEntry(request, 256);
     out.writeByte(CAS);
     Util.objectToStream(key, out);
     Util.objectToStream(from, out);
     Util.objectToStream(to, out);
+    return submit(out.buffer(), out.position());
+  }
 
-    byte[] buf = out.buffer();
-    byte[] rsp = raft.set(buf, 0, out.position(), repl_timeout, TimeUnit.MILLISECONDS);
-    return Util.objectFromByteBuffer(rsp);
+  /**
+   * Maps the key to the value with the same entry as {@link #put(Object, Object)}, but within the request session.
+   *
+   * @return The index covering the write.
+   */
+  private long put(Request request, String key, Object value) throws Exception {
+    ByteArrayDataOutputStream out = prepareEntry(request, 256);
+    out.writeByte(PUT);
+    Util.objectToStream(key, out);
+    Util.objectToStream(value, out);
+    return submit(out.buffer(), out.position()).index();
   }
+
+  /**
+   * Maps the key to a raw value read straight from the request stream.
+   * <p>
+   * The log entry is sized up front, and the value bytes are read from the stream directly into it. This avoids
+   * an intermediate value array and the String conversion, so large values are copied once between the socket and RAFT.
+   *
+   * @param request: The request header, the entry is wrapped in its session if it has one.
+   * @param key: The key to map.
+   * @param in: The stream positioned at the start of the value bytes.
+   * @param length: The number of value bytes to read from the stream.
+   * @return The index covering the write.
+   */
+  public long putBytes(Request request, String key, DataInput in, int length) throws Exception {
+    ByteArrayDataOutputStream header = prepareEntry(request, 64);
+    header.writeByte(PUT_BYTES);
+    Util.objectToStream(key, header);
+    header.writeInt(length);
+
+    byte[] entry = new byte[header.position() + length];
+    System.arraycopy(header.buffer(), 0, entry, 0, header.position());
+    in.readFully(entry, header.position(), length);
+    return submit(entry, entry.length).index();
+  }
+
+  /**
+   * Creates the buffer for a log entry, starting with the {@link #INDEXED} byte, followed by the {@link #SESSION}
+   * header when the request has a session.
+   */
+  private ByteArrayDataOutputStream prepareEntry(Request request, int capacity) throws Exception {
+    if (request == null || !request.hasSession()) {
+      ByteArrayDataOutputStream out = new ByteArrayDataOutputStream(1 + capacity);
+      out.writeByte(INDEXED);
+      return out;
+    }
+
+    ByteArrayDataOutputStream out = new ByteArrayDataOutputStream(1 + SESSION_HEADER + capacity);
+    out.writeByte(INDEXED);
+    out.writeByte(SESSION);
+    out.writeLong(request.getClientId().getMostSignificantBits());
+    out.writeLong(request.getClientId().getLeastSignificantBits());
+    out.writeLong(request.getSequence());
+    out.writeLong(request.getLowestPending());
+    return out;
+  }
+
+  /**
+   * Submits an {@link #INDEXED} entry, splitting the response of the leader into the result and the index.
+   */
+  private Indexed submit(byte[] entry, int length) throws Exception {
+    byte[] rsp;
+    RequestTracer.submitted();
+    try {
+      rsp = raft.set(entry, 0, length, repl_timeout, TimeUnit.MILLISECONDS);
+    } finally {
+      RequestTracer.completed();
+    }
+
+    byte[] result = rsp.length > Long.BYTES ? Arrays.copyOfRange(rsp, Long.BYTES, rsp.length) : null;
+    return new Indexed(result, Bits.readLong(rsp, 0));
+  }
+
+  private record Indexed(byte[] result, long index) { }
 }
@@ -0,0 +1,202 @@
+package org.jgroups.raft.server;
+
+import java.util.Objects;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder events for the life of a request in the server.
+ * <p>
+ * A request emits {@link Received} once the state machine decoded the command, {@link CommitWait} while waiting on
+ * RAFT, and {@link Sent} when replying. The state machines emit {@link Apply} for each log entry. As with
+ * {@link RequestTracer}, the request is handled by a single thread, so the command and key live in a thread local.
+ * Nothing is allocated unless a running recording enables the events, and otherwise they only cost a check of the
+ * cached event types.
+ */
+final class RequestEvents {
+  private static final ThreadLocal<Context> CONTEXT = new ThreadLocal<>();
+  private static final EventType RECEIVED = EventType.getEventType(Received.class);
+  private static final EventType COMMIT_WAIT = EventType.getEventType(CommitWait.class);
+  private static final EventType SENT = EventType.getEventType(Sent.class);
+  private static final EventType APPLY = EventType.getEventType(Apply.class);
+
+  private RequestEvents() { }
+
+  static void begin(int size) {
+    if (!RECEIVED.isEnabled() && !COMMIT_WAIT.isEnabled() && !SENT.isEnabled()) return;
+
+    Context context = new Context();
+    context.size = size;
+    context.received.begin();
+    CONTEXT.set(context);
+  }
+
+  /**
+   * The state machine decoded the command of the request.
+   */
+  static void decoded(String command, Object key) {
+    Context context = CONTEXT.get();
+    if (context == null) return;
+
+    context.command = command;
+    context.keyHash = Objects.hashCode(key);
+    Received event = context.received;
+    event.end();
+    if (event.shouldCommit()) {
+      event.command = command;
+      event.keyHash = context.keyHash;
+      event.size = context.size;
+      event.commit();
+    }
+  }
+
+  static void submitted() {
+    Context context = CONTEXT.get();
+    if (context != null && context.commitWait == null) {
+      context.commitWait = new CommitWait();
+      context.commitWait.begin();
+    }
+  }
+
+  static void completed() {
+    Context context = CONTEXT.get();
+    if (context == null || context.commitWait == null) return;
+
+    CommitWait event = context.commitWait;
+    event.end();
+    if (event.shouldCommit()) {
+      event.command = context.command;
+      event.keyHash = context.keyHash;
+      event.commit();
+    }
+  }
+
+  /**
+   * @return The event to pass to {@link #sent(Sent, int)} once the response is written, or null if not recording.
+   */
+  static Sent sending() {
+    if (CONTEXT.get() == null) return null;
+
+    Sent event = new Sent();
+    event.begin();
+    return event;
+  }
+
+  static void sent(Sent event, int size) {
+    Context context = CONTEXT.get();
+    CONTEXT.remove();
+    if (event == null || context == null) return;
+
+    event.end();
+    if (event.shouldCommit()) {
+      event.command = context.command;
+      event.keyHash = context.keyHash;
+      event.size = size;
+      event.commit();
+    }
+  }
+
+  static Apply beginApply() {
+    if (!APPLY.isEnabled()) return null;
+
+    Apply event = new Apply();
+    event.begin();
+    return event;
+  }
+
+  /**
+   * Ends the apply event, returning whether the caller should fill and commit it.
+   */
+  static boolean endApply(Apply event) {
+    if (event == null) return false;
+
+    event.end();
+    return event.shouldCommit();
+  }
+
+  static void commitApply(Apply event, String command, int keyHash, int size) {
+    event.command = command;
+    event.keyHash = keyHash;
+    event.size = size;
+    event.commit();
+  }
+
+  private static final class Context {
+    private final Received received = new Received();
+    private CommitWait commitWait;
+    private String command;
+    private int keyHash;
+    private int size;
+  }
+
+  @Name("org.jgroups.raft.RequestReceived")
+  @Label("Request Received")
+  @Description("From reading the request header until the state machine decoded the command")
+  @Category({ "JGroups", "RAFT" })
+  @StackTrace(false)
+  static final class Received extends Event {
+    @Label("Command")
+    String command;
+
+    @Label("Key Hash")
+    int keyHash;
+
+    @Label("Size")
+    @DataAmount
+    int size;
+  }
+
+  @Name("org.jgroups.raft.CommitWait")
+  @Label("Commit Wait")
+  @Description("Waiting on RAFT to commit and apply the command, or to read")
+  @Category({ "JGroups", "RAFT" })
+  @StackTrace(false)
+  static final class CommitWait extends Event {
+    @Label("Command")
+    String command;
+
+    @Label("Key Hash")
+    int keyHash;
+  }
+
+  @Name("org.jgroups.raft.Apply")
+  @Label("Apply")
+  @Description("Applying a log entry to the state machine")
+  @Category({ "JGroups", "RAFT" })
+  @StackTrace(false)
+  static final class Apply extends Event {
+    @Label("Command")
+    String command;
+
+    @Label("Key Hash")
+    int keyHash;
+
+    @Label("Entry Size")
+    @DataAmount
+    int size;
+  }
+
+  @Name("org.jgroups.raft.ResponseSent")
+  @Label("Response Sent")
+  @Description("Serializing and sending the response")
+  @Category({ "JGroups", "RAFT" })
+  @StackTrace(false)
+  static final class Sent extends Event {
+    @Label("Command")
+    String command;
+
+    @Label("Key Hash")
+    int keyHash;
+
+    @Label("Size")
+    @DataAmount
+    int size;
+  }
+}
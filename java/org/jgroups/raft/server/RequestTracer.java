@@ -0,0 +1,56 @@
+package org.jgroups.raft.server;
+
+import org.jgroups.raft.data.Stage;
+
+/**
+ * Stamps the server stages of a traced request.
+ * <p>
+ * The request is handled by a single thread from receiving until replying, so we keep the stamps in a thread local.
+ * The state machines mark when they submit to RAFT and when RAFT completes. Marking is a no-op for requests not traced.
+ * The same marks delimit the {@link RequestEvents.CommitWait} event while recording.
+ */
+final class RequestTracer {
+  private static final ThreadLocal<long[]> STAMPS = new ThreadLocal<>();
+
+  private static final int RECEIVED = 0;
+  private static final int SUBMITTED = 1;
+  private static final int COMPLETED = 2;
+
+  private RequestTracer() { }
+
+  static void begin(long received) {
+    STAMPS.set(new long[] { received, 0, 0 });
+  }
+
+  static void submitted() {
+    RequestEvents.submitted();
+    long[] stamps = STAMPS.get();
+    if (stamps != null && stamps[SUBMITTED] == 0) stamps[SUBMITTED] = System.nanoTime();
+  }
+
+  static void completed() {
+    RequestEvents.completed();
+    long[] stamps = STAMPS.get();
+    if (stamps != null) stamps[COMPLETED] = System.nanoTime();
+  }
+
+  /**
+   * @return The nanoseconds spent in each server {@link Stage}, indexed by the stage ordinal.
+   */
+  static long[] end() {
+    long now = System.nanoTime();
+    long[] stamps = STAMPS.get();
+    STAMPS.remove();
+
+    long[] trace = new long[Stage.values().length];
+    if (stamps == null) return trace;
+
+    // Requests that never touch RAFT spend all the time decoding.
+    long submitted = stamps[SUBMITTED] == 0 ? now : stamps[SUBMITTED];
+    long completed = stamps[COMPLETED] == 0 ? now : stamps[COMPLETED];
+    trace[Stage.DECODE.ordinal()] = submitted - stamps[RECEIVED];
+    trace[Stage.RAFT.ordinal()] = completed - submitted;
+    trace[Stage.REPLY.ordinal()] = now - completed;
+    return trace;
+  }
+}
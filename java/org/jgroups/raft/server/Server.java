@@ -2,18 +2,35 @@ package org.jgroups.raft.server;
 
 import java.io.DataInput;
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
 import org.jgroups.Address;
 import org.jgroups.JChannel;
 import org.jgroups.blocks.cs.BaseServer;
 import org.jgroups.blocks.cs.Receiver;
-import org.jgroups.blocks.cs.TcpServer;
 import org.jgroups.logging.Log;
 import org.jgroups.logging.LogFactory;
 import org.jgroups.protocols.raft.RAFT;
 import org.jgroups.protocols.raft.Role;
+import org.jgroups.raft.data.Request;
+import org.jgroups.raft.data.Response;
+import org.jgroups.raft.data.ServerOverloadedException;
 import org.jgroups.raft.demos.ReplicatedStateMachineDemo;
 import org.jgroups.stack.IpAddress;
 import org.jgroups.util.ByteArrayDataInputStream;
@@ -30,25 +47,144 @@ import org.jgroups.util.Util;
  *   <li>{@link Server.Command#GET}: Retrieve the value mapped to the key.</li>
  *   <li>{@link Server.Command#CAS}. Compare-and-set the key returns a boolean indicating if the
  *    operation succeeded.</li>
+ *   <li>{@link Server.Command#PUT_BYTES}: Maps a key to a raw byte value and returns null.</li>
+ *   <li>{@link Server.Command#BOUNDED_GET}: Retrieve the value mapped to the key from the local node, once it applied
+ *    up to an index and within a staleness bound.</li>
+ *   <li>{@link Server.Command#RANGE}: Retrieve a page of the entries between two keys, in key order.</li>
+ *   <li>{@link Server.Command#PREFIX}: Retrieve a page of the entries with keys starting with a prefix, in key
+ *    order.</li>
  * </ul>
  *
+ * Every response carries an index at least as recent as what the request observed, so clients can ask for reads
+ * at least that recent. Writes and quorum reads carry the index they committed at, as reported by the leader, and
+ * the other requests the commit index of the node after handling them.
+ *
  * This implementation is based on {@link ReplicatedStateMachineDemo}.
+ * <p>
+ * Starting the server goes through a few phases: creating the channel, connecting it, which also restores the
+ * state machine from the latest snapshot and replays the log, binding the client port, and catching up with the
+ * commit index. We log the time spent in each phase. The server is ready once the local state machine applied every
+ * entry committed before the catch-up started, and the optional ready file signals that externally.
+ * <p>
+ * The server bounds the number of requests in flight, for the whole node and for each connection. A request over the
+ * budget is rejected right away with a {@link ServerOverloadedException}, instead of waiting on RAFT until the client
+ * times out. The connection budget matters with {@link Transport#NIO}, where a client shared by many threads has
+ * several requests in flight on one connection, which could otherwise take the whole node budget.
+ * <p>
+ * The {@link Transport} accepting the clients is pluggable. With {@link Transport#TCP}, each connection has a reader
+ * thread, which also handles the requests. With {@link Transport#NIO}, a single selector thread reads every connection
+ * and hands a copy of each request to a pool of workers, so the number of threads does not grow with the connections.
+ * The selector thread admits the requests before queueing them, so the queue of the workers is bounded by the number
+ * of requests in flight.
+ * <p>
+ * The server emits Flight Recorder events for each request, see {@link RequestEvents}. With a recording file, the
+ * server runs a continuous recording named {@value #RECORDING}, which is written to the file when closing and can
+ * be dumped at any time with <code>jcmd &lt;pid&gt; JFR.dump name=jgroups-raft</code>.
  *
  * @author José Bolina
  */
 public class Server implements Receiver, AutoCloseable, RAFT.RoleChange {
+  public static final String RECORDING = "jgroups-raft";
+
   protected final Log log = LogFactory.getLog(getClass());
   private String props;
   private String name;
   private long timeout;
+  private boolean jmx = true;
+  private boolean snapshotOnClose;
+  private Path readyFile;
+  private volatile boolean ready;
+  private int maxInFlight;
+  private int maxInFlightPerConnection;
+  private long tickInterval;
+  private Transport transport = Transport.TCP;
+  private int workers = 64;
+  private int receiveBufferSize;
+  private int sendBufferSize;
+  private ExecutorService executor;
+  private Path recordingFile;
+  private Recording recording;
+  private Semaphore inFlight;
+  private final Map<Address, Integer> connectionsInFlight = new ConcurrentHashMap<>();
+
+  private long prepareNanos;
+  private long connectNanos;
+  private long bindNanos;
 
   private JChannel channel;
+  private RAFT raft;
   private TestStateMachine stateMachine;
   private BaseServer server;
 
 
+  @Override
+  public void receive(Address sender, ByteBuffer buf) {
+    if (executor == null) {
+      Receiver.super.receive(sender, buf);
+      return;
+    }
+
+    // The transport may reuse the buffer once we return, so the worker gets a copy.
+    byte[] copy = new byte[buf.remaining()];
+    buf.get(copy);
+    dispatch(sender, copy);
+  }
+
   @Override
   public void receive(Address sender, byte[] buf, int offset, int length) {
+    if (executor == null) {
+      receive0(sender, buf, offset, length);
+      return;
+    }
+
+    dispatch(sender, Arrays.copyOfRange(buf, offset, offset + length));
+  }
+
+  /**
+   * Reads the request header and admits the request on the selector thread, then hands the request to a worker. A
+   * rejected request is answered right away, without waiting in the queue of the workers.
+   */
+  private void dispatch(Address sender, byte[] buf) {
+    long received = System.nanoTime();
+    Request request = new Request();
+    try {
+      request.readFrom(new ByteArrayDataInputStream(buf));
+    } catch (Exception e) {
+      log.error("Error receiving data from %s", sender, e);
+      return;
+    }
+
+    String rejection = admit(sender);
+    if (rejection != null) {
+      RequestEvents.begin(buf.length);
+      try {
+        reject(sender, request, rejection);
+      } catch (Exception e) {
+        log.error("Error rejecting request from %s", sender, e);
+      }
+      return;
+    }
+
+    try {
+      executor.execute(() -> {
+        int header = request.serializedSize();
+        try (ByteArrayDataInputStream in = new ByteArrayDataInputStream(buf, header, buf.length - header)) {
+          RequestEvents.begin(buf.length);
+          handle(sender, request, in, received);
+        } catch (Exception e) {
+          log.error("Error receiving data from %s", sender, e);
+        } finally {
+          release(sender);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // The workers only reject once the server is closing.
+      release(sender);
+      log.debug("Dropping request from %s while closing", sender);
+    }
+  }
+
+  private void receive0(Address sender, byte[] buf, int offset, int length) {
     try (ByteArrayDataInputStream in = new ByteArrayDataInputStream(buf, offset, length)) {
       receive(sender, in, length);
     } catch (Exception e) {
@@ -58,14 +194,113 @@ public class Server implements Receiver, AutoCloseable, RAFT.RoleChange {
 
   @Override
   public void receive(Address address, DataInput in, int length) throws Exception {
-    sendResponse(address, stateMachine.receive(in));
+    long received = System.nanoTime();
+    RequestEvents.begin(length);
+    Request request = new Request();
+    request.readFrom(in);
+
+    String rejection = admit(address);
+    if (rejection != null) {
+      skipFully(in, length - request.serializedSize());
+      reject(address, request, rejection);
+      return;
+    }
+
+    try {
+      handle(address, request, in, received);
+    } finally {
+      release(address);
+    }
+  }
+
+  private void handle(Address address, Request request, DataInput in, long received) throws Exception {
+    if (!request.isTraced()) {
+      sendResponse(address, indexed(stateMachine.receive(request, in)));
+      return;
+    }
+
+    RequestTracer.begin(received);
+    Response response;
+    long[] trace;
+    try {
+      response = stateMachine.receive(request, in);
+    } finally {
+      trace = RequestTracer.end();
+    }
+    sendResponse(address, indexed(response.withTrace(trace)));
+  }
+
+  /**
+   * Falls back to the local commit index when the state machine did not set the index of the response.
+   */
+  private Response indexed(Response response) {
+    return response.getIndex() > 0 ? response : response.withIndex(raft.commitIndex());
+  }
+
+  private void reject(Address address, Request request, String rejection) {
+    RequestEvents.decoded("OVERLOADED", null);
+    sendResponse(address, new Response(request.getUuid(), new ServerOverloadedException(rejection)));
+  }
+
+  /**
+   * @return The reason to reject the request, or null if admitted.
+   */
+  private String admit(Address address) {
+    if (inFlight != null && !inFlight.tryAcquire())
+      return String.format("%s has %d requests in flight", name, maxInFlight);
+
+    if (maxInFlightPerConnection <= 0) return null;
+
+    boolean[] admitted = { false };
+    connectionsInFlight.compute(address, (ignore, current) -> {
+      int count = current == null ? 0 : current;
+      if (count >= maxInFlightPerConnection) return current;
+      admitted[0] = true;
+      return count + 1;
+    });
+
+    if (admitted[0]) return null;
+
+    if (inFlight != null) inFlight.release();
+    return String.format("%s has %d requests in flight from %s", name, maxInFlightPerConnection, address);
+  }
+
+  private void release(Address address) {
+    if (maxInFlightPerConnection > 0)
+      connectionsInFlight.computeIfPresent(address, (ignore, current) -> current <= 1 ? null : current - 1);
+    if (inFlight != null) inFlight.release();
+  }
+
+  private static void skipFully(DataInput in, int length) throws Exception {
+    int remaining = length;
+    while (remaining > 0) {
+      int skipped = in.skipBytes(remaining);
+      if (skipped <= 0) {
+        in.readByte();
+        skipped = 1;
+      }
+      remaining -= skipped;
+    }
   }
 
   @Override
-  public void close() throws Exception {
-    server.close();
+  public synchronized void close() throws Exception {
+    // The shutdown hook may run after an explicit close.
+    if (channel == null) return;
+
+    if (server != null) server.close();
+    if (executor != null) executor.shutdownNow();
+    if (snapshotOnClose && raft != null) snapshot();
     channel.close();
     channel = null;
+    ready = false;
+    if (recording != null) {
+      // The recording is written to the destination when stopping.
+      recording.stop();
+      recording.close();
+      log.info("Flight recording written to %s", recordingFile);
+      recording = null;
+    }
   }
 
   public Server withProps(String props) {
@@ -96,32 +331,137 @@ public class Server implements Receiver, AutoCloseable, RAFT.RoleChange {
     return this;
   }
 
+  public Server withLogDir(String logDir) {
+    log.info("Using log directory: " + logDir);
+    System.getProperties().put("log_dir", logDir);
+    return this;
+  }
+
+  public Server withJmx(boolean jmx) {
+    this.jmx = jmx;
+    return this;
+  }
+
+  /**
+   * Takes a snapshot of the state machine before closing. The log is truncated, so the next start loads the snapshot
+   * instead of replaying every entry.
+   */
+  public Server withSnapshotOnClose(boolean snapshotOnClose) {
+    this.snapshotOnClose = snapshotOnClose;
+    return this;
+  }
+
+  /**
+   * The file is created once the server is ready and deleted when starting.
+   */
+  public Server withReadyFile(String readyFile) {
+    this.readyFile = readyFile == null ? null : Path.of(readyFile);
+    return this;
+  }
+
+  /**
+   * Bounds the requests in flight on this node. Zero or less means unbounded.
+   */
+  public Server withMaxInFlight(int maxInFlight) {
+    this.maxInFlight = maxInFlight;
+    this.inFlight = maxInFlight > 0 ? new Semaphore(maxInFlight) : null;
+    return this;
+  }
+
+  /**
+   * Bounds the requests in flight from a single connection. Zero or less means unbounded.
+   */
+  public Server withMaxInFlightPerConnection(int maxInFlightPerConnection) {
+    this.maxInFlightPerConnection = maxInFlightPerConnection;
+    return this;
+  }
+
+  /**
+   * The leader submits a tick every interval, bounding the staleness of {@link Command#BOUNDED_GET} reads.
+   * Zero or less disables the ticks.
+   */
+  public Server withTickInterval(long tickInterval) {
+    this.tickInterval = tickInterval;
+    return this;
+  }
+
+  public Server withTransport(Transport transport) {
+    this.transport = transport;
+    return this;
+  }
+
+  /**
+   * The number of threads handling the requests read by the {@link Transport#NIO} selector.
+   */
+  public Server withWorkers(int workers) {
+    this.workers = workers;
+    return this;
+  }
+
+  /**
+   * The socket receive buffer of the client connections in bytes. Zero or less keeps the system default.
+   */
+  public Server withReceiveBufferSize(int receiveBufferSize) {
+    this.receiveBufferSize = receiveBufferSize;
+    return this;
+  }
+
+  /**
+   * The socket send buffer of the client connections in bytes. Zero or less keeps the system default.
+   */
+  public Server withSendBufferSize(int sendBufferSize) {
+    this.sendBufferSize = sendBufferSize;
+    return this;
+  }
+
+  /**
+   * Runs a continuous Flight Recorder recording while the server is up, written to the file when closing.
+   */
+  public Server withRecordingFile(String recordingFile) {
+    this.recordingFile = recordingFile == null ? null : Path.of(recordingFile);
+    return this;
+  }
+
+  public JChannel channel() {
+    return channel;
+  }
+
+  public boolean isReady() {
+    return ready;
+  }
+
   public Server prepareReplicatedMapStateMachine() throws Exception {
     if (channel != null) throw new IllegalStateException("Channel is already running");
+    long start = System.nanoTime();
     channel = new JChannel(props).name(name);
-    stateMachine = new ReplicatedMap<String, String>(channel);
-    ((ReplicatedMap<String, String>) stateMachine)
-        .raftId(name)
+    ReplicatedMap map = new ReplicatedMap(channel);
+    map.raftId(name)
         .timeout(timeout)
         .addRoleChangeListener(this);
+    stateMachine = map.tickInterval(tickInterval);
+    prepareNanos = System.nanoTime() - start;
     return this;
   }
 
   public Server prepareCounterStateMachine() throws Exception {
     if (channel != null) throw new IllegalStateException("Channel is already running");
+    long start = System.nanoTime();
     channel = new JChannel(props).name(name);
     stateMachine = new ReplicatedCounter(channel);
     ((ReplicatedCounter) stateMachine)
         .raftId(name)
         .replTimeout(timeout)
         .addRoleChangeListener(this);
+    prepareNanos = System.nanoTime() - start;
     return this;
   }
 
   public Server prepareElectionInspection() throws Exception {
     if (channel != null) throw new IllegalStateException("Channel is already running");
+    long start = System.nanoTime();
     channel = new JChannel(props).name(name);
     stateMachine = new LeaderElection(channel);
+    prepareNanos = System.nanoTime() - start;
     return this;
   }
 
@@ -129,6 +469,10 @@ public class Server implements Receiver, AutoCloseable, RAFT.RoleChange {
     Objects.requireNonNull(channel, "Channel is null");
     Objects.requireNonNull(stateMachine, "State machine is null");
 
+    if (readyFile != null) Files.deleteIfExists(readyFile);
+    if (recordingFile != null) startRecording();
+
+    long start = System.nanoTime();
     try {
       log.info("Connecting %s with members %s", name, System.getProperty("raft_members"));
       channel.connect("rsm");
@@ -136,22 +480,96 @@ public class Server implements Receiver, AutoCloseable, RAFT.RoleChange {
       log.error("Error connecting to channel", e);
       throw e;
     }
+    connectNanos = System.nanoTime() - start;
+    raft = channel.getProtocolStack().findProtocol(RAFT.class);
 
-    Util.registerChannel(channel, "rsm");
-    server = new TcpServer(bind, port).receiver(this);
+    start = System.nanoTime();
+    if (jmx) Util.registerChannel(channel, "rsm");
+    if (transport == Transport.NIO) executor = Executors.newFixedThreadPool(workers, r -> {
+      Thread t = new Thread(r, "worker-" + name);
+      t.setDaemon(true);
+      return t;
+    });
+    server = transport.server(bind, port).receiver(this);
+    if (receiveBufferSize > 0) server.receiveBufferSize(receiveBufferSize);
+    if (sendBufferSize > 0) server.sendBufferSize(sendBufferSize);
     server.start();
+    bindNanos = System.nanoTime() - start;
     int local_port=server.localAddress() instanceof IpAddress ? ((IpAddress)server.localAddress()).getPort(): 0;
-    log.info("Listening at %s:%s", bind != null ? bind : "0.0.0.0",  local_port);
+    log.info("Listening at %s:%s with %s", bind != null ? bind : "0.0.0.0",  local_port, transport);
 
+    Thread t = new Thread(this::awaitReady, "readiness-" + name);
+    t.setDaemon(true);
+    t.start();
     return this;
   }
 
+  private void awaitReady() {
+    long start = System.nanoTime();
+    JChannel ch = channel;
+    while (ch.isConnected() && !ready) {
+      try {
+        if (raft.leader() == null) {
+          LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+          continue;
+        }
+
+        stateMachine.awaitCaughtUp(timeout);
+        ready = true;
+      } catch (Exception e) {
+        log.debug("%s not caught up yet: %s", name, e.getMessage());
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+      }
+    }
+
+    if (!ready) return;
+
+    long catchUpNanos = System.nanoTime() - start;
+    log.info("%s ready: prepare=%dms, connect=%dms, bind=%dms, catch-up=%dms, commit-index=%d, last-appended=%d",
+        name, toMillis(prepareNanos), toMillis(connectNanos), toMillis(bindNanos), toMillis(catchUpNanos),
+        raft.commitIndex(), raft.lastAppended());
+
+    if (readyFile != null) {
+      try {
+        Files.writeString(readyFile, String.valueOf(raft.commitIndex()));
+      } catch (Exception e) {
+        log.error("Failed writing ready file %s", readyFile, e);
+      }
+    }
+  }
+
+  private void startRecording() throws Exception {
+    recording = new Recording(Configuration.getConfiguration("default"));
+    recording.setName(RECORDING);
+    recording.setToDisk(true);
+    recording.setMaxAge(Duration.ofHours(1));
+    recording.setDestination(recordingFile);
+    recording.start();
+    log.info("Started flight recording %s to %s", RECORDING, recordingFile);
+  }
+
+  private void snapshot() {
+    try {
+      long start = System.nanoTime();
+      raft.snapshot();
+      log.info("%s snapshot at commit index %d took %dms", name, raft.commitIndex(), toMillis(System.nanoTime() - start));
+    } catch (Exception e) {
+      log.error("Failed taking snapshot before closing", e);
+    }
+  }
+
+  private static long toMillis(long nanos) {
+    return TimeUnit.NANOSECONDS.toMillis(nanos);
+  }
+
 
 
   private void sendResponse(Address target, Object res) {
+    RequestEvents.Sent event = RequestEvents.sending();
     try {
       byte[] buf = Util.objectToByteBuffer(res);
       server.send(target, buf, 0, buf.length);
+      RequestEvents.sent(event, buf.length);
     } catch (Exception e) {
       throw new RuntimeException(e);
     }
@@ -174,5 +592,9 @@ public class Server implements Receiver, AutoCloseable, RAFT.RoleChange {
     PUT,
     GET,
     CAS,
+    PUT_BYTES,
+    BOUNDED_GET,
+    RANGE,
+    PREFIX,
   }
 }
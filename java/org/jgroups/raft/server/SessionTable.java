@@ -0,0 +1,123 @@
+package org.jgroups.raft.server;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.jgroups.util.UUID;
+
+/**
+ * Replicated table with the results of the writes applied for each client session.
+ * <p>
+ * A session write is applied once for each pair of client id and sequence number. A retry of a write already applied
+ * returns the stored result instead of applying it again. The table is only modified while applying log entries, so
+ * every replica holds the same table, and it is part of the snapshot.
+ * <p>
+ * Retention is bounded. Each request carries the lowest sequence number still pending in the client, and the results
+ * below it are dropped. A session keeps the highest lowest pending sequence it saw, so a delayed duplicate of a request
+ * the client already completed is skipped, even after its result was dropped. We also keep at most {@link #maxResults}
+ * results per session and {@link #maxSessions} sessions, evicting the session applied least recently. The eviction only
+ * depends on the order of the log, so it is the same on every replica. A retry arriving after its session was evicted
+ * is applied again.
+ */
+public final class SessionTable {
+  static final int DEFAULT_MAX_SESSIONS = 4096;
+  static final int DEFAULT_MAX_RESULTS = 128;
+
+  private final int maxSessions;
+  private final int maxResults;
+  private final Map<UUID, Session> sessions;
+
+  public SessionTable() {
+    this(DEFAULT_MAX_SESSIONS, DEFAULT_MAX_RESULTS);
+  }
+
+  public SessionTable(int maxSessions, int maxResults) {
+    this.maxSessions = maxSessions;
+    this.maxResults = maxResults;
+    this.sessions = new LinkedHashMap<>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<UUID, Session> eldest) {
+        return size() > SessionTable.this.maxSessions;
+      }
+    };
+  }
+
+  /**
+   * Applies the command once for the given session and sequence number.
+   *
+   * @return The result of the command, either from applying it now or stored from the first time.
+   */
+  public synchronized byte[] apply(UUID client, long sequence, long lowestPending, Command command) throws Exception {
+    Session session = sessions.computeIfAbsent(client, ignore -> new Session());
+    // A duplicate carries the lowest pending of when it was sent, so it must not move the mark back.
+    if (lowestPending > session.lowestPending) {
+      session.lowestPending = lowestPending;
+      session.results.headMap(lowestPending).clear();
+    }
+
+    // The client already completed the request, so nobody waits for the result.
+    if (sequence < session.lowestPending) return null;
+
+    if (session.results.containsKey(sequence)) return session.results.get(sequence);
+
+    byte[] result = command.apply();
+    session.results.put(sequence, result);
+    while (session.results.size() > maxResults) session.results.pollFirstEntry();
+    return result;
+  }
+
+  public synchronized int size() {
+    return sessions.size();
+  }
+
+  public synchronized void writeTo(DataOutput out) throws Exception {
+    out.writeInt(sessions.size());
+    for (Map.Entry<UUID, Session> entry : sessions.entrySet()) {
+      out.writeLong(entry.getKey().getMostSignificantBits());
+      out.writeLong(entry.getKey().getLeastSignificantBits());
+      out.writeLong(entry.getValue().lowestPending);
+      out.writeInt(entry.getValue().results.size());
+      for (Map.Entry<Long, byte[]> result : entry.getValue().results.entrySet()) {
+        out.writeLong(result.getKey());
+        byte[] value = result.getValue();
+        out.writeInt(value == null ? -1 : value.length);
+        if (value != null) out.write(value);
+      }
+    }
+  }
+
+  public synchronized void readFrom(DataInput in) throws Exception {
+    sessions.clear();
+    int size = in.readInt();
+    for (int i = 0; i < size; i++) {
+      UUID client = new UUID(in.readLong(), in.readLong());
+      Session session = new Session();
+      session.lowestPending = in.readLong();
+      int results = in.readInt();
+      for (int j = 0; j < results; j++) {
+        long sequence = in.readLong();
+        int length = in.readInt();
+        byte[] value = null;
+        if (length >= 0) {
+          value = new byte[length];
+          in.readFully(value);
+        }
+        session.results.put(sequence, value);
+      }
+      sessions.put(client, session);
+    }
+  }
+
+  @FunctionalInterface
+  public interface Command {
+    byte[] apply() throws Exception;
+  }
+
+  private static final class Session {
+    private final TreeMap<Long, byte[]> results = new TreeMap<>();
+    private long lowestPending;
+  }
+}
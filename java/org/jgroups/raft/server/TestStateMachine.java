@@ -3,9 +3,23 @@ package org.jgroups.raft.server;
 import java.io.DataInput;
 
 import org.jgroups.raft.StateMachine;
+import org.jgroups.raft.data.Request;
 import org.jgroups.raft.data.Response;
 
 public interface TestStateMachine extends StateMachine {
 
-  Response receive(DataInput in) throws Exception;
+  /**
+   * Handles the command following the request header.
+   *
+   * @param request: The request header, identifying the request to reply to.
+   * @param in: The stream positioned at the start of the command.
+   */
+  Response receive(Request request, DataInput in) throws Exception;
+
+  /**
+   * Blocks until the local state machine applied every entry committed before the call.
+   *
+   * @param timeout: Maximum time to wait in milliseconds.
+   */
+  default void awaitCaughtUp(long timeout) throws Exception { }
 }
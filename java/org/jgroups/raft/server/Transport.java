@@ -0,0 +1,43 @@
+package org.jgroups.raft.server;
+
+import java.net.InetAddress;
+
+import org.jgroups.blocks.cs.BaseServer;
+import org.jgroups.blocks.cs.NioClient;
+import org.jgroups.blocks.cs.NioServer;
+import org.jgroups.blocks.cs.TcpClient;
+import org.jgroups.blocks.cs.TcpServer;
+
+/**
+ * The transport between the clients and the server.
+ */
+public enum Transport {
+  /**
+   * Blocking sockets, with a reader thread for each connection.
+   */
+  TCP,
+
+  /**
+   * Non-blocking sockets, with a single selector thread for all connections. The server hands the requests to a pool
+   * of workers, so a request waiting on RAFT does not block the selector.
+   */
+  NIO;
+
+  public BaseServer server(InetAddress bind, int port) throws Exception {
+    return switch (this) {
+      case TCP -> new TcpServer(bind, port);
+      case NIO -> new NioServer(bind, port);
+    };
+  }
+
+  public BaseServer client(InetAddress server, int port) throws Exception {
+    return switch (this) {
+      case TCP -> new TcpClient(null, 0, server, port);
+      case NIO -> new NioClient(null, 0, server, port);
+    };
+  }
+
+  public static Transport parse(String name) {
+    return valueOf(name.trim().toUpperCase());
+  }
+}
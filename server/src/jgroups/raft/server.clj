@@ -7,7 +7,7 @@
     [slingshot.slingshot :refer [try+]])
   (:import (java.lang ProcessHandle)
            (java.net InetAddress)
-           (org.jgroups.raft.server Server)))
+           (org.jgroups.raft.server Server Transport)))
 
 (def opt-spec
   [["-m" "--members MEMBER-LIST" "Comma-separated list of peers to connect to"
@@ -18,7 +18,34 @@
     :parse-fn identity]
    ["-s" "--state-machine NAME" "State machine to execute."
     :default :register
-    :parse-fn keyword]])
+    :parse-fn keyword]
+   [nil "--ready-file PATH" "File created once the node caught up with the commit index"
+    :parse-fn identity]
+   [nil "--max-in-flight NUM" "Requests in flight on the node before rejecting, unbounded if zero"
+    :default 0
+    :parse-fn parse-long]
+   [nil "--max-in-flight-per-connection NUM" "Requests in flight from a connection before rejecting, unbounded if zero"
+    :default 0
+    :parse-fn parse-long]
+   [nil "--tick-interval MS" "Time between leader ticks bounding the staleness of follower reads, disabled if zero"
+    :default 0
+    :parse-fn parse-long]
+   [nil "--transport NAME" "Transport accepting the clients, tcp or nio"
+    :default "tcp"
+    :parse-fn identity]
+   [nil "--workers NUM" "Threads handling the requests read by the nio transport"
+    :default 64
+    :parse-fn parse-long]
+   [nil "--recv-buf-size BYTES" "Socket receive buffer of the client connections, system default if zero"
+    :default 0
+    :parse-fn parse-long]
+   [nil "--send-buf-size BYTES" "Socket send buffer of the client connections, system default if zero"
+    :default 0
+    :parse-fn parse-long]
+   [nil "--jfr PATH" "Run a continuous flight recording, written to the file on shutdown"
+    :parse-fn identity]
+   [nil "--snapshot-on-close" "Take a snapshot when shutting down, so the next start skips the log replay"
+    :default false]])
 
 (defn -main
   "Run and configure the server."
@@ -34,13 +61,25 @@
             (.withName name)
             (.withMembers members)
             (.withProps props)
-            (.withTimeout (long 30000)))]
+            (.withTimeout (long 30000))
+            (.withReadyFile (:ready-file options))
+            (.withMaxInFlight (int (:max-in-flight options)))
+            (.withMaxInFlightPerConnection (int (:max-in-flight-per-connection options)))
+            (.withTickInterval (long (:tick-interval options)))
+            (.withTransport (Transport/parse (:transport options)))
+            (.withWorkers (int (:workers options)))
+            (.withReceiveBufferSize (int (:recv-buf-size options)))
+            (.withSendBufferSize (int (:send-buf-size options)))
+            (.withRecordingFile (:jfr options))
+            (.withSnapshotOnClose (boolean (:snapshot-on-close options))))]
     (case (:state-machine options)
       :register (.prepareReplicatedMapStateMachine s)
       :counter  (.prepareCounterStateMachine s)
       :election (.prepareElectionInspection s))
     (try+
       (.start s (InetAddress/getByName name) 9000)
+      (.addShutdownHook (Runtime/getRuntime)
+                        (Thread. ^Runnable (fn [] (.close s))))
       (catch Throwable t
         (error "Failed starting" (.pid (ProcessHandle/current)) "and exiting..." t)
         (System/exit 1)))))
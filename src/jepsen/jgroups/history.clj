@@ -0,0 +1,19 @@
+(ns jepsen.jgroups.history
+  "Helpers to analyze the operations of a history.")
+
+(defn completions
+  "Pair each client invocation with its completion. Returns the completions with the `:invoke-time` of the
+  invocation and the `:latency` in nanoseconds. Invocations without a completion are dropped."
+  [history]
+  (let [invokes (volatile! {})]
+    (->> history
+         (keep (fn [op]
+                 (when (integer? (:process op))
+                   (case (:type op)
+                     :invoke (do (vswap! invokes assoc (:process op) op) nil)
+                     (when-let [invoke (get @invokes (:process op))]
+                       (vswap! invokes dissoc (:process op))
+                       (assoc op
+                              :invoke-time (:time invoke)
+                              :latency (- (:time op) (:time invoke))))))))
+         vec)))
@@ -8,6 +8,7 @@
     [jepsen.generator :as gen]
     [jepsen.jgroups.nemesis.nemesis :as ln]
     [jepsen.jgroups.server :as server]
+    [jepsen.jgroups.trace :as trace]
     [jepsen.jgroups.workload.workload :as lw]
     [jepsen.os.debian :as debian]))
 
@@ -16,6 +17,15 @@
   [[nil "--stale-reads" "Accept stale reads when retrieving values."
     :default false]
 
+   [nil "--trace" "Trace requests, recording the time spent in each stage."
+    :default false]
+
+   [nil "--jfr" "Run a flight recording on each server, downloaded with the logs."
+    :default false]
+
+   [nil "--snapshot-on-close" "Stop the servers with SIGTERM, so they snapshot before exiting, even when killed."
+    :default false]
+
    ["-r" "--rate HZ" "Approximate number of requests per second per thread."
     :default 10
     :parse-fn read-string
@@ -34,6 +44,11 @@
                                      (ln/special-nemeses n))))
                (cli/one-of (concat ln/nemeses (keys ln/special-nemeses)))]]
 
+   [nil "--value-size BYTES" "Size of the values written by the blob workload."
+    :default 1024
+    :parse-fn parse-long
+    :validate [pos? "Must be a positive integer."]]
+
    [nil "--workload NAME" "Name of the workload to run."
     :default :single-register
     :parse-fn keyword
@@ -45,6 +60,58 @@
     :parse-fn read-string
     :validate [pos? "Must be positive"]]
 
+   [nil "--latency-slo MS" "The p99 latency the throughput workload must sustain."
+    :default 100
+    :parse-fn read-string
+    :validate [pos? "Must be positive"]]
+
+   [nil "--ramp-step SECONDS" "How long the throughput workload runs each concurrency level."
+    :default 10
+    :parse-fn read-string
+    :validate [pos? "Must be positive"]]
+
+   [nil "--throughput-baseline PATH" "A previous throughput.edn report to check for regressions."]
+
+   [nil "--regression-tolerance RATIO" "How much lower the sustainable throughput may be than the baseline."
+    :default 0.2
+    :parse-fn read-string
+    :validate [#(<= 0 % 1) "Must be between 0 and 1"]]
+
+   [nil "--max-in-flight NUM" "Requests in flight on each node before rejecting with overload, unbounded if zero."
+    :default 0
+    :parse-fn parse-long
+    :validate [#(not (neg? %)) "Must not be negative"]]
+
+   [nil "--max-in-flight-per-connection NUM" "Requests in flight on one connection before rejecting, unbounded if zero."
+    :default 0
+    :parse-fn parse-long
+    :validate [#(not (neg? %)) "Must not be negative"]]
+
+   [nil "--max-staleness MS" "Staleness bound of the follower reads in the bounded-register workload."
+    :default 1000
+    :parse-fn read-string
+    :validate [#(not (neg? %)) "Must not be negative"]]
+
+   [nil "--tick-interval MS" "Time between the leader ticks bounding the staleness of follower reads."
+    :default 100
+    :parse-fn read-string
+    :validate [pos? "Must be positive"]]
+
+   [nil "--transport NAME" "Transport between the clients and the servers, tcp or nio."
+    :default :tcp
+    :parse-fn keyword
+    :validate [#{:tcp :nio} "Must be tcp or nio"]]
+
+   [nil "--workers NUM" "Threads handling the requests on each node with the nio transport."
+    :default 64
+    :parse-fn parse-long
+    :validate [pos? "Must be positive"]]
+
+   [nil "--retries NUM" "Times a client retries an operation after a timeout, the server applies writes once."
+    :default 0
+    :parse-fn parse-long
+    :validate [#(not (neg? %)) "Must not be negative"]]
+
    [nil "--operation-timeout SECONDS" "How long to wait for an operation to complete."
     :default 10
     :parse-fn read-string
@@ -56,11 +123,13 @@
 
     :rate         Approximate number of requests per second.
     :ops-per-key  Maximum number of operations allowed on any given key.
-    :workload     Name of the workload to run."
+    :workload     Name of the workload to run.
+    :trace        Records the time each request spends in each stage.
+    :retries      Times the register and counter clients retry an operation after a timeout."
   [opts]
   (let [db (server/db opts)
         nemesis (ln/setup-nemesis opts db)
-        workload ((lw/workloads (:workload opts)) opts)]
+        workload ((lw/workloads (:workload opts)) (assoc opts :nemesis-perf (:perf nemesis)))]
     (merge tests/noop-test
            opts
            {:pure-generators true
@@ -71,17 +140,19 @@
             :nemesis         (:nemesis nemesis)
             :client          (:client workload)
             :checker         (checker/compose
-                               {:perf       (checker/perf {:nemeses (:perf nemesis)})
-                                :exceptions (checker/unhandled-exceptions)
-                                :stats      (checker/stats)
-                                :workload   (:checker workload)})
+                               (cond-> {:perf       (checker/perf {:nemeses (:perf nemesis)})
+                                        :exceptions (checker/unhandled-exceptions)
+                                        :stats      (checker/stats)
+                                        :workload   (:checker workload)}
+                                 (:trace opts) (assoc :stages (trace/checker {:nemeses (:perf nemesis)}))))
             :generator       (gen/phases
-                               (->> (:generator workload)
-                                    (gen/stagger (/ (:rate opts)))
+                               (->> (cond->> (:generator workload)
+                                      (:rate-limit? workload true) (gen/stagger (/ (:rate opts))))
                                     (gen/nemesis
-                                      (gen/phases
-                                        (gen/sleep (:interval opts))
-                                        (:generator nemesis)))
+                                      ((:wrap-nemesis workload identity)
+                                       (gen/phases
+                                         (gen/sleep (:interval opts))
+                                         (:generator nemesis))))
                                     (gen/time-limit (:time-limit opts)))
                                (gen/log "Waiting and then healing cluster")
                                (gen/sleep 10)
@@ -29,6 +29,9 @@
 (def remote-hosts-file (str dir "/hosts.txt"))
 (def log-file (str dir "/server.log"))
 (def pid-file (str dir "/server.pid"))
+(def ready-file (str dir "/server.ready"))
+(def jfr-file (str dir "/server.jfr"))
+(def jcmd (str/replace binary #"/java$" "/jcmd"))
 (def local-server "server")
 (def local-props-file (str local-server "/resources/raft-aws.xml"))
 (def local-server-jar (str local-server "/target/server.jar"))
@@ -114,6 +117,22 @@
     {:log-message (str "Waiting for server " host ":" port)
      :timeout 20000}))
 
+(defn await-ready
+  "Blocks until the server caught up with the commit index, logging how long it took.
+  A node isolated from the leader never catches up, so we only warn on timeout."
+  [node]
+  (let [start (System/nanoTime)]
+    (try+
+      (util/await-fn
+        (fn check-ready []
+          (c/exec :test :-f ready-file)
+          nil)
+        {:log-message (str "Waiting for server " node " to catch up")
+         :timeout 20000})
+      (info "Node" node "ready after" (util/nanos->ms (- (System/nanoTime) start)) "ms")
+      (catch [:type :jepsen.util/timeout] _
+        (warn "Node" node "did not catch up after" (util/nanos->ms (- (System/nanoTime) start)) "ms")))))
+
 (defn identify-state-machine
   "Identify the state machine from the workload."
   [opts]
@@ -122,21 +141,52 @@
     :election #"election"
     #"register"))
 
-(defn stop!
-  "Stop the ReplicatedStateMachineDemo."
+(defn terminate!
+  "Ask the server to shut down with SIGTERM, so the shutdown hook closes it cleanly, and wait for the process to exit.
+  Only warns if the server is still running after the timeout."
   [node]
+  (try+
+    (c/su (c/exec :kill :-TERM (get-pid)))
+    (util/await-fn
+      (fn check-exit []
+        (when (is-pid-running?)
+          (throw+ {:type ::still-running}))
+        nil)
+      {:log-message (str "Waiting for server " node " to shut down")
+       :timeout 10000})
+    (catch [:type :jepsen.control/nonzero-exit] _
+      (info "Server" node "not running"))
+    (catch [:type :jepsen.util/timeout] _
+      (warn "Server" node "did not shut down cleanly"))))
+
+(defn stop!
+  "Stop the ReplicatedStateMachineDemo.
+  With `:snapshot-on-close`, the server first gets the chance to shut down cleanly and take the snapshot, otherwise it
+  is killed right away."
+  [test node]
   (info "Stopping node" node)
+  (when (:snapshot-on-close test)
+    (terminate! node))
   (c/cd dir
         (c/su
           (cu/stop-daemon! binary pid-file))))
 
+(defn dump-recording!
+  "Dump the flight recording of the running server to the recording file. The server also writes the file when
+  shutting down cleanly, so a dead process only warns."
+  [node]
+  (try+
+    (c/exec jcmd (c/lit (str "$(cat " pid-file ")")) "JFR.dump" "name=jgroups-raft" (str "filename=" jfr-file))
+    (catch [:type :jepsen.control/nonzero-exit] e
+      (warn "Failed dumping flight recording on" node (:err e)))))
+
 (defn definitely-stop!
   "Keep trying to stop the server until nothing is bound to the port."
-  [node]
+  [test node]
   (util/timeout 20000 (throw+ {:type ::stop-timeout
                                :message (str "Couldn't stop server " node " after 20 seconds")})
                 (while (is-alive?* node 9000)
-                  (stop! node)
+                  (stop! test node)
                   (info "Waiting for server" node " to stop")
                   (Thread/sleep 1000))))
 
@@ -163,21 +213,33 @@
         (c/su
           (c/exec :ln :-sf (c/lit "/usr/sbin/start-stop-daemon") (c/lit "/usr/bin/start-stop-daemon")))
 
-        (let [daemon (cu/start-daemon! {:chdir   dir
-                                        :logfile log-file
-                                        :pidfile pid-file}
-                                       binary
-                                       :-cp remote-hosts-file
-                                       :-jar remote-jar
-                                       :--members members
-                                       :-n node
-                                       :-p remote-props-file
-                                       :-s (identify-state-machine test)
-                                       :>> log-file)]
+        (let [daemon (apply cu/start-daemon! {:chdir   dir
+                                              :logfile log-file
+                                              :pidfile pid-file}
+                            binary
+                            (concat
+                              [:-cp remote-hosts-file
+                               :-jar remote-jar
+                               :--members members
+                               :-n node
+                               :-p remote-props-file
+                               :-s (identify-state-machine test)
+                               :--ready-file ready-file
+                               :--max-in-flight (:max-in-flight test 0)
+                               :--max-in-flight-per-connection (:max-in-flight-per-connection test 0)
+                               :--transport (name (:transport test :tcp))
+                               :--workers (:workers test 64)
+                               :--tick-interval (if (= :bounded-register (:workload test))
+                                                  (:tick-interval test)
+                                                  0)]
+                              (when (:jfr test) [:--jfr jfr-file])
+                              (when (:snapshot-on-close test) [:--snapshot-on-close])
+                              [:>> log-file]))]
           (when (= daemon :started)
             ; We wait for the server to be available before returning.
             ; This can cause a timeout during startup.
             (await-available node 9000)
+            (await-ready node)
             (info "Started node" node))
           daemon)))))
 
@@ -195,13 +257,16 @@
 
   (teardown! [_ test node]
     (info :teardown node)
-    (stop! node)
+    (stop! test node)
     (c/su
-      (c/exec :rm :-rf log-file remote-jar (str "/tmp/" node ".log"))))
+      (c/exec :rm :-rf log-file remote-jar ready-file jfr-file (str "/tmp/" node ".log"))))
 
   db/LogFiles
   (log-files [_ test node]
-    [log-file])
+    (if (:jfr test)
+      (do (dump-recording! node)
+          [log-file jfr-file])
+      [log-file]))
 
   db/Primary
   (setup-primary! [_ test node])
@@ -235,7 +300,7 @@
          :nodes @(:members test)})))
 
   (kill! [_ test node]
-    (definitely-stop! node)
+    (definitely-stop! test node)
     node)
 
   db/Pause
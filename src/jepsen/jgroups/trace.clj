@@ -0,0 +1,69 @@
+(ns jepsen.jgroups.trace
+  "Checks the stage latencies of traced requests.
+
+  Traced operations carry a `:trace` map with the milliseconds spent in each stage. We turn each stage into
+  its own operation, so Jepsen's latency graphs plot the stages next to the nemesis activity."
+  (:require
+    [clojure.tools.logging :refer :all]
+    [jepsen.checker :as checker]
+    [jepsen.history :as h]
+    [jepsen.util :as util]))
+
+(def stages
+  "Stages in the order a request goes through them."
+  [:queue :network :decode :raft :reply])
+
+(defn stage-ops
+  "Split each traced completion into an invoke and ok pair per stage. Each stage starts at the time
+  the original operation was invoked, and lasts for the time spent in the stage."
+  [history]
+  (let [invokes (volatile! {})]
+    (->> history
+         (mapcat (fn [op]
+                   (cond
+                     (= :invoke (:type op))
+                     (do (vswap! invokes assoc (:process op) op) nil)
+
+                     (and (= :ok (:type op)) (:trace op))
+                     (let [start (:time (get @invokes (:process op)))]
+                       (for [stage stages
+                             :let [ms (get (:trace op) stage)]
+                             :when ms
+                             [type time] [[:invoke start]
+                                          [:ok (+ start (long (util/ms->nanos ms)))]]]
+                         {:process (:process op), :type type, :f stage, :time time}))
+
+                     :else nil)))
+         vec)))
+
+(defn quantiles
+  "Summarize the milliseconds spent in each stage."
+  [history]
+  (->> (for [op history
+             :when (:trace op)
+             [stage ms] (:trace op)]
+         [stage ms])
+       (group-by first)
+       (map (fn [[stage pairs]]
+              (let [values (sort (map second pairs))
+                    n (count values)
+                    q (fn [p] (nth values (min (dec n) (int (* p n)))))]
+                [stage {:count n, :p50 (q 0.5), :p99 (q 0.99), :max (last values)}])))
+       (into (sorted-map))))
+
+(defn checker
+  "Plots the latency of each stage to the `stages` folder, shading the nemesis activity, and summarizes
+  the stage quantiles. Always valid, this checker only reports."
+  [opts]
+  (let [graph (checker/latency-graph opts)]
+    (reify checker/Checker
+      (check [_ test history check-opts]
+        (let [ops (stage-ops history)]
+          (if (empty? ops)
+            {:valid? true, :traced 0}
+            (let [nemesis (filter #(= :nemesis (:process %)) history)
+                  staged (h/history (concat ops (map #(dissoc % :index) nemesis)))]
+              (checker/check graph test staged (assoc check-opts :subdirectory "stages"))
+              {:valid?    true
+               :traced    (count (filter :trace history))
+               :quantiles (quantiles history)})))))))
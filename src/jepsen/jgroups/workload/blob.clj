@@ -0,0 +1,88 @@
+(ns jepsen.jgroups.workload.blob
+  "Register workload writing large values.
+
+  Values travel through the raw byte path of the replicated map. Each value is padded to the
+  configured `:value-size`, with the register value encoded in the first 8 bytes. The padding is
+  random, so the checker still sees small integers while the cluster handles KB to MB payloads."
+  (:require
+    [clojure.tools.logging :refer :all]
+    (jepsen
+      [client :as client])
+    [jepsen.checker :as checker]
+    [jepsen.checker.timeline :as timeline]
+    [jepsen.generator :as gen]
+    [jepsen.independent :as independent]
+    [jepsen.jgroups.workload.client :as c]
+    [jepsen.jgroups.workload.register :as register]
+    [knossos.model :as model])
+  (:import
+    (java.net InetAddress)
+    (java.nio ByteBuffer)
+    (java.util.concurrent ThreadLocalRandom)
+    (org.jgroups.raft.client SyncReplicatedBytesClient)))
+
+(defn encode
+  "Encode the register value into a buffer of the given size."
+  [value size]
+  (let [bytes (byte-array (max Long/BYTES size))]
+    (.nextBytes (ThreadLocalRandom/current) bytes)
+    (-> (ByteBuffer/wrap bytes)
+        (.putLong 0 (long value)))))
+
+(defn decode
+  "Decode the register value from the bytes read."
+  [^bytes bytes]
+  (when bytes
+    (.getLong (ByteBuffer/wrap bytes) 0)))
+
+(defrecord BlobClient [conn]
+  client/Client
+
+  (open! [this test node]
+    (info "Starting blob client connecting to" node)
+    (let [c (doto (SyncReplicatedBytesClient. node)
+              (.withTimeout (long (* 1000 (:operation-timeout test))))
+              (.withTargetAddress (InetAddress/getByName node))
+              (.withTargetPort 9000)
+              (.withTransport (c/transport test))
+              (.withTracing (boolean (:trace test)))
+              (.withRetries (int (:retries test 0))))]
+      (.start c)
+      (assoc this :conn c)))
+
+  (setup! [this test])
+
+  (invoke! [this test op]
+    (let [[k v] (:value op)]
+      (c/with-trace conn
+        (c/with-errors op #{:read}
+          (case (:f op)
+            :read (let [value (decode (.get conn k (boolean (:quorum-reads test))))]
+                    (assoc op :type :ok, :value (independent/tuple k value)))
+
+            :write (do (.put conn k ^ByteBuffer (encode v (:value-size test)))
+                       (assoc op :type :ok)))))))
+
+  (teardown! [this test])
+
+  (close! [_ test]
+    (.close conn)))
+
+(defn workload
+  "Create a workload for registers holding large values. This tests linearizable reads and writes
+  on independent keys, where every write carries `:value-size` bytes."
+  [opts]
+  (let [n (count (:nodes opts))]
+    {:client    (BlobClient. nil)
+     :checker   (independent/checker
+                  (checker/compose
+                    {:timeline (timeline/html)
+                     :linear   (checker/linearizable
+                                 {:model     (model/cas-register)
+                                  :algorithm :linear})}))
+     :generator (independent/concurrent-generator
+                  (min (* 2 n) (:concurrency opts))
+                  (range)
+                  (fn [_]
+                    (->> (gen/mix [register/r register/w])
+                         (gen/limit (:ops-per-key opts)))))}))
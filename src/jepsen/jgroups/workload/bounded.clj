@@ -0,0 +1,121 @@
+(ns jepsen.jgroups.workload.bounded
+  "Register workload reading from any node within a staleness bound.
+
+  Reads go to the local state machine of the node the client is connected to, once the node applied up to the
+  highest index the client observed, and is at most `:max-staleness` milliseconds stale. Writes go through
+  the leader as usual, with a unique value for each write on a key.
+
+  Bounded reads are not linearizable, so instead the checker validates the bound. A read is stale by the time
+  between the value it returned being overwritten and the read starting. A write overwrote the value if it started
+  after the write of the value completed, and the value is overwritten once that write completes."
+  (:require
+    [clojure.tools.logging :refer :all]
+    (jepsen
+      [client :as client])
+    [jepsen.checker :as checker]
+    [jepsen.checker.timeline :as timeline]
+    [jepsen.generator :as gen]
+    [jepsen.independent :as independent]
+    [jepsen.jgroups.history :as h]
+    [jepsen.jgroups.workload.client :as c]
+    [jepsen.jgroups.workload.register :as register])
+  (:import
+    (java.net InetAddress)
+    (org.jgroups.raft.client SyncReplicatedStateMachineClient)))
+
+(defrecord BoundedClient [conn]
+  client/Client
+
+  (open! [this test node]
+    (info "Starting bounded client connecting to" node)
+    (let [c (doto (SyncReplicatedStateMachineClient. node)
+              (.withTimeout (long (* 1000 (:operation-timeout test))))
+              (.withTargetAddress (InetAddress/getByName node))
+              (.withTargetPort 9000)
+              (.withTransport (c/transport test))
+              (.withTracing (boolean (:trace test)))
+              (.withRetries (int (:retries test 0))))]
+      (.start c)
+      (assoc this :conn c)))
+
+  (setup! [this test])
+
+  (invoke! [this test op]
+    (let [[k v] (:value op)]
+      (c/with-trace conn
+        (c/with-errors op #{:read}
+          (case (:f op)
+            :read (let [value (register/parse-response
+                                (.getBounded conn k (.lastIndex conn) (long (:max-staleness test))))]
+                    (assoc op :type :ok, :value (independent/tuple k value)))
+
+            :write (do (register/raft-write conn k v)
+                       (assoc op :type :ok)))))))
+
+  (teardown! [this test])
+
+  (close! [_ test]
+    (.close conn)))
+
+(defn staleness
+  "How long in nanoseconds the value returned by the read was overwritten before the read started. Zero if the
+  value was current when the read started, or nil if the value was never written. Writes are the completions by
+  value, and a key starts without a value."
+  [writes read]
+  (let [v (:value read)
+        w (get writes v)]
+    (when (or (nil? v) w)
+      (if-let [written (if (nil? v)
+                         Long/MIN_VALUE
+                         (when (= :ok (:type w)) (:time w)))]
+        (let [overwritten (->> (vals writes)
+                               (filter #(and (= :ok (:type %)) (< written (:invoke-time %))))
+                               (map :time)
+                               (reduce min Long/MAX_VALUE))]
+          (max 0 (- (:invoke-time read) overwritten)))
+        ; We never saw the write complete, so we can not tell when it was overwritten.
+        0))))
+
+(defn checker
+  "Checks every read of a key returned a value overwritten at most `max-staleness` milliseconds before the read
+  started."
+  [max-staleness]
+  (reify checker/Checker
+    (check [_ test history opts]
+      (let [ops (h/completions history)
+            writes (->> ops
+                        (filter #(and (= :write (:f %)) (#{:ok :info} (:type %))))
+                        (map (juxt :value identity))
+                        (into {}))
+            reads (->> ops
+                       (filter #(and (= :read (:f %)) (= :ok (:type %))))
+                       (map #(assoc % :staleness (staleness writes %))))
+            bound (* max-staleness 1000000)
+            unknown (filter (comp nil? :staleness) reads)
+            stale (filter #(some-> (:staleness %) (> bound)) reads)]
+        {:valid?           (and (empty? unknown) (empty? stale))
+         :reads            (count reads)
+         :max-staleness-ms (/ (reduce max 0 (keep :staleness reads)) 1e6)
+         :unknown-reads    (vec (take 10 unknown))
+         :stale-reads      (vec (take 10 stale))}))))
+
+(defn write-values
+  "Writes of unique values, so the checker knows which write a read observed."
+  []
+  (map (fn [v] {:type :invoke, :f :write, :value v}) (drop 1 (range))))
+
+(defn workload
+  "Create a workload reading from any node within `:max-staleness` milliseconds on independent keys."
+  [opts]
+  (let [n (count (:nodes opts))]
+    {:client    (BoundedClient. nil)
+     :checker   (independent/checker
+                  (checker/compose
+                    {:timeline  (timeline/html)
+                     :staleness (checker (:max-staleness opts))}))
+     :generator (independent/concurrent-generator
+                  (min (* 2 n) (:concurrency opts))
+                  (range)
+                  (fn [_]
+                    (->> (gen/mix [register/r (write-values)])
+                         (gen/limit (:ops-per-key opts)))))}))
@@ -1,7 +1,8 @@
 (ns jepsen.jgroups.workload.client
   (:require
     [clojure.tools.logging :refer :all]
-    [slingshot.slingshot :refer [throw+ try+]]))
+    [slingshot.slingshot :refer [throw+ try+]])
+  (:import (org.jgroups.raft.server Transport)))
 
 (defmacro remap-error
   "Evaluates the body, converting to proper errors we can handle."
@@ -22,6 +23,12 @@
        (throw+
          {:definite? true, :type :connect, :description (.getMessage e#)}))
 
+     ; The server rejected the request before executing it, because too many requests
+     ; were in flight. We are sure the operation failed.
+     (catch org.jgroups.raft.data.ServerOverloadedException e#
+       (throw+
+         {:definite? true, :type :overloaded, :description (.getMessage e#)}))
+
      ; SocketException must be after ConnectException.
      ; As this is a broad exception, we can not tell if a change was applied or not.
      (catch java.net.SocketException e#
@@ -61,3 +68,16 @@
                      :fail
                      :info)
              :error [(:type e#) (:description e#)]))))
+
+(defn with-trace
+  "Attach the time in milliseconds the last request spent in each stage to the completed operation.
+  Only available when the client traces requests and the request succeeded."
+  [conn op]
+  (if-let [trace (.lastTrace conn)]
+    (assoc op :trace (into {} (map (fn [[stage ms]] [(keyword stage) ms])) trace))
+    op))
+
+(defn transport
+  "The transport the clients use to connect to the servers."
+  [test]
+  (Transport/parse (name (:transport test :tcp))))
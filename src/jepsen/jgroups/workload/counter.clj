@@ -69,7 +69,10 @@
               ; We are using the double of the nemesis interval or 10s.
               (.withTimeout (long (* 1000 (:operation-timeout test))))
               (.withTargetAddress (InetAddress/getByName node))
-              (.withTargetPort 9000))]
+              (.withTargetPort 9000)
+              (.withTransport (c/transport test))
+              (.withTracing (boolean (:trace test)))
+              (.withRetries (int (:retries test 0))))]
       (.start c)
       (assoc this :conn c)))
 
@@ -77,20 +80,21 @@
 
   (invoke! [this test op]
     (let [v (:value op)]
-      (c/with-errors op #{:read}
-        (case (:f op)
-          :read (let [res (get! conn)]
-                 (assoc op :type :ok, :value res))
+      (c/with-trace conn
+        (c/with-errors op #{:read}
+          (case (:f op)
+            :read (let [res (get! conn)]
+                   (assoc op :type :ok, :value res))
 
-          :add (do (add! conn v)
-                   (assoc op :type :ok))
+            :add (do (add! conn v)
+                     (assoc op :type :ok))
 
-          :decr (do (add! conn (neg! v))
-                    (assoc op :type :ok))
+            :decr (do (add! conn (neg! v))
+                      (assoc op :type :ok))
 
-          :add-and-get (assoc op :type :ok, :value [v (add-and-get! conn v)])
+            :add-and-get (assoc op :type :ok, :value [v (add-and-get! conn v)])
 
-          :decr-and-get (assoc op :type :ok, :value [v (add-and-get! conn (neg! v))])))))
+            :decr-and-get (assoc op :type :ok, :value [v (add-and-get! conn (neg! v))]))))))
 
   (teardown! [this test])
 
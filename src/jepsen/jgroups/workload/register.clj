@@ -61,7 +61,10 @@
               ; We are using the double of the nemesis interval or 10s.
               (.withTimeout (long (* 1000 (:operation-timeout test))))
               (.withTargetAddress (InetAddress/getByName node))
-              (.withTargetPort 9000))]
+              (.withTargetPort 9000)
+              (.withTransport (c/transport test))
+              (.withTracing (boolean (:trace test)))
+              (.withRetries (int (:retries test 0))))]
       (.start c)
       (assoc this :conn c)))
 
@@ -69,19 +72,20 @@
 
   (invoke! [this test op]
     (let [[k v] (:value op)]
-      (c/with-errors op #{:read}
-        (case (:f op)
-         :read (let [value (raft-read conn k {:quorum? (:quorum-reads test)})]
-                 (assoc op :type :ok, :value (independent/tuple k value)))
-
-         :write (do (raft-write conn k v)
-                    (assoc op :type :ok))
-
-         :cas (let [[old new] v
-                    succeeded (raft-cas conn k old new)]
-                (if succeeded
-                  (assoc op :type :ok, :value (independent/tuple k [old new]))
-                  (assoc op :type :fail, :error :cas-fail)))))))
+      (c/with-trace conn
+        (c/with-errors op #{:read}
+          (case (:f op)
+           :read (let [value (raft-read conn k {:quorum? (:quorum-reads test)})]
+                   (assoc op :type :ok, :value (independent/tuple k value)))
+
+           :write (do (raft-write conn k v)
+                      (assoc op :type :ok))
+
+           :cas (let [[old new] v
+                      succeeded (raft-cas conn k old new)]
+                  (if succeeded
+                    (assoc op :type :ok, :value (independent/tuple k [old new]))
+                    (assoc op :type :fail, :error :cas-fail))))))))
 
   (teardown! [this test])
 
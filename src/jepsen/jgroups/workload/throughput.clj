@@ -0,0 +1,268 @@
+(ns jepsen.jgroups.workload.throughput
+  "Measures the maximum sustainable throughput under a latency SLO.
+
+  The generator ramps up the number of active client threads, doubling it every `:ramp-step` seconds until
+  all threads are busy or the p99 latency of a level breaches `:latency-slo`. It then holds the highest level
+  within the SLO for the rest of the test, and only then the nemesis starts. Clients issue reads and writes
+  without any rate limit. The checker computes the throughput and latency for each level of the ramp, and the
+  highest throughput of a level whose p99 latency stays within `:latency-slo`. For each nemesis fault during the
+  hold, it compares the throughput during the fault to the baseline before it, and measures how long the
+  throughput takes to recover after the fault heals. Every window is at the same concurrency.
+
+  The report is written to `throughput.edn` in the test folder. Given a previous report as a baseline, the
+  checker fails when the sustainable throughput regresses more than the tolerance."
+  (:require
+    [clojure.edn :as edn]
+    [clojure.tools.logging :refer :all]
+    [jepsen.checker :as checker]
+    [jepsen.generator :as gen]
+    [jepsen.independent :as independent]
+    [jepsen.jgroups.history :as h]
+    [jepsen.jgroups.workload.register :as register]
+    [jepsen.store :as store]
+    [jepsen.util :as util])
+  (:import (org.jgroups.protocols.raft RAFT)))
+
+(def recovered-ratio
+  "Fraction of the baseline throughput we consider recovered."
+  0.9)
+
+(defn levels
+  "Concurrency levels to ramp through, doubling up to the number of threads."
+  [concurrency]
+  (-> (take-while #(< % concurrency) (iterate #(* 2 %) 1))
+      vec
+      (conj concurrency)))
+
+(defn level-op
+  "Create a read or write on a random key, tagged with the concurrency level. The operations holding the final
+  level are also tagged with `:hold?`."
+  [level hold?]
+  (fn [_ _]
+    (let [k (rand-int 16)]
+      (cond-> (assoc (if (< (rand) 0.5)
+                       {:type :invoke, :f :read, :value (independent/tuple k nil)}
+                       {:type :invoke, :f :write, :value (independent/tuple k (rand-int 5))})
+                :level level)
+        hold? (assoc :hold? true)))))
+
+(defn level-gen
+  "Operations restricted to the first `level` threads."
+  [level hold?]
+  (gen/on-threads #(< % level) (level-op level hold?)))
+
+(defn percentile
+  "The given percentile of a non-empty collection of numbers."
+  [p values]
+  (let [sorted (vec (sort values))]
+    (nth sorted (min (dec (count sorted)) (int (* p (count sorted)))))))
+
+(defn breached?
+  "Whether the p99 of the latencies in nanoseconds is over the SLO in milliseconds."
+  [latencies slo-ms]
+  (boolean (and (seq latencies)
+                (< slo-ms (util/nanos->ms (percentile 0.99 latencies))))))
+
+(defn next-level
+  "Ends the current level of the ramp at `now`. Moves on to the next level while the p99 latency of the current
+  one is within the SLO. Otherwise, or after the last level, holds the highest level within the SLO for the rest
+  of the test, and delivers the `ramped` promise."
+  [ramp now]
+  (let [{:keys [levels level previous latencies slo-ms ramped]} ramp
+        breached (breached? latencies slo-ms)]
+    (if (or breached (empty? levels))
+      (let [held (if breached (or previous level) level)]
+        (if breached
+          (info "Level" level "is over the latency SLO, holding level" held)
+          (info "Ramp finished, holding level" held))
+        ; Delivering is idempotent, so it is safe even if the generator discards this state.
+        (deliver ramped true)
+        (assoc ramp :holding? true, :level held, :start now, :latencies [], :gen (level-gen held true)))
+      (assoc ramp :levels (rest levels), :level (first levels), :previous level, :start now, :latencies [],
+                  :gen (level-gen (first levels) false)))))
+
+(defrecord Ramp [levels level previous step slo-ms ramped holding? start latencies invokes gen]
+  gen/Generator
+  (op [this test ctx]
+    (let [now (:time ctx)]
+      (cond
+        (nil? start)
+        (gen/op (assoc this :start now) test ctx)
+
+        (and (not holding?) (<= (+ start step) now))
+        (gen/op (next-level this now) test ctx)
+
+        :else
+        (when-let [[op gen'] (gen/op gen test ctx)]
+          [op (assoc this :gen gen')]))))
+
+  (update [this test ctx event]
+    (let [this (assoc this :gen (gen/update gen test ctx event))
+          process (:process event)]
+      (cond
+        (not (integer? process)) this
+
+        (= :invoke (:type event)) (assoc-in this [:invokes process] (:time event))
+
+        :else
+        (let [invoked (get invokes process)
+              this (update this :invokes dissoc process)]
+          (if (and invoked (not holding?) (= :ok (:type event)) (= level (:level event)))
+            (update this :latencies conj (- (:time event) invoked))
+            this))))))
+
+(defn generator
+  "Ramp through the concurrency levels, restricting the operations to the first `level` threads, until a level
+  breaches the latency SLO. See `next-level`."
+  [opts ramped]
+  (let [[first-level & more] (levels (:concurrency opts))]
+    (map->Ramp {:levels    more
+                :level     first-level
+                :step      (long (* (:ramp-step opts) 1e9))
+                :slo-ms    (:latency-slo opts)
+                :ramped    ramped
+                :latencies []
+                :gen       (level-gen first-level false)})))
+
+(defrecord Hold [ready gen]
+  gen/Generator
+  (op [this test ctx]
+    (if (realized? ready)
+      (gen/op gen test ctx)
+      [:pending this]))
+
+  (update [this test ctx event]
+    (assoc this :gen (gen/update gen test ctx event))))
+
+(defn hold-nemesis
+  "Hold the nemesis generator until the ramp delivers `ramped`."
+  [ramped gen]
+  (Hold. ramped gen))
+
+(defn level-stats
+  "Throughput and latency for each concurrency level, considering only successful operations."
+  [completions slo-ms]
+  (->> completions
+       (filter #(= :ok (:type %)))
+       (group-by :level)
+       (keep (fn [[level ops]]
+               (when level
+                 (let [times (map :time ops)
+                       secs (max 1e-3 (/ (- (reduce max times) (reduce min times)) 1e9))
+                       p99 (util/nanos->ms (percentile 0.99 (map :latency ops)))]
+                   {:level       level
+                    :ops         (count ops)
+                    :ops-per-sec (double (/ (count ops) secs))
+                    :p99-ms      (double p99)
+                    :within-slo? (<= p99 slo-ms)}))))
+       (sort-by :level)
+       vec))
+
+(defn throughput-between
+  "Successful operations per second completing in the [start, end) interval, in nanoseconds."
+  [completions start end]
+  (when (< start end)
+    (/ (count (filter #(and (= :ok (:type %)) (<= start (:time %)) (< (:time %) end)) completions))
+       (/ (- end start) 1e9))))
+
+(defn fault-intervals
+  "Pair the start and stop operations of each nemesis described in the perf specification.
+  Returns maps with the name, start, and stop times. A fault never stopped lasts until the end."
+  [history perf]
+  (let [end (or (:time (last history)) 0)
+        nemesis (filter #(= :nemesis (:process %)) history)]
+    (->> perf
+         (filter #(and (:start %) (:stop %)))
+         (mapcat (fn [{:keys [name start stop]}]
+                   (loop [ops nemesis, open nil, acc []]
+                     (if-let [op (first ops)]
+                       (cond
+                         (and (nil? open) (start (:f op))) (recur (rest ops) (:time op) acc)
+                         (and open (stop (:f op)))
+                         (recur (rest ops) nil (conj acc {:name name, :start open, :stop (:time op)}))
+                         :else (recur (rest ops) open acc))
+                       (cond-> acc open (conj {:name name, :start open, :stop end}))))))
+         (sort-by :start)
+         vec)))
+
+(defn recovery-ms
+  "Milliseconds after the fault stops until one second reaches the recovered fraction of the baseline."
+  [completions baseline stop end]
+  (loop [t stop]
+    (when (< t end)
+      (let [ops (throughput-between completions t (+ t 1e9))]
+        (if (>= ops (* recovered-ratio baseline))
+          (double (util/nanos->ms (- t stop)))
+          (recur (+ t 1e8)))))))
+
+(defn fault-stats
+  "Compare the throughput during each fault to the baseline in the `window` nanoseconds before it, not earlier than
+  `from`."
+  [completions faults from window]
+  (let [end (or (:time (last completions)) 0)]
+    (vec
+      (for [{:keys [name start stop]} faults
+            :when (<= from start)
+            :let [baseline (throughput-between completions (max from (- start window)) start)]
+            :when (and baseline (pos? baseline))]
+        (let [during (or (throughput-between completions start stop) 0)]
+          {:name           name
+           :start-ms       (double (util/nanos->ms start))
+           :duration-ms    (double (util/nanos->ms (- stop start)))
+           :baseline-ops   (double baseline)
+           :during-ops     (double during)
+           :drop           (double (- 1 (/ during baseline)))
+           :recovery-ms    (recovery-ms completions baseline stop end)})))))
+
+(defn analyze
+  "Build the throughput report from the history."
+  [history {:keys [latency-slo ramp-step nemesis-perf]}]
+  (let [completions (h/completions history)
+        levels (level-stats (remove :hold? completions) latency-slo)
+        sustainable (filter :within-slo? levels)
+        held (filter :hold? completions)
+        hold-start (when (seq held) (reduce min (map :invoke-time held)))
+        faults (fault-intervals history nemesis-perf)]
+    {:jgroups-raft-version (.getImplementationVersion (.getPackage RAFT))
+     :latency-slo-ms       latency-slo
+     :levels               levels
+     :max-sustainable-ops  (when (seq sustainable) (reduce max (map :ops-per-sec sustainable)))
+     :hold-level           (:level (first held))
+     :faults               (if hold-start
+                             (fault-stats held faults hold-start (* ramp-step 1e9))
+                             [])}))
+
+(defn regression
+  "Compare the report to a baseline report. Returns a description of the regression, if any."
+  [report baseline tolerance]
+  (let [current (:max-sustainable-ops report)
+        previous (:max-sustainable-ops baseline)]
+    (when (and previous (or (nil? current) (< current (* (- 1 tolerance) previous))))
+      {:max-sustainable-ops current
+       :baseline            previous
+       :tolerance           tolerance})))
+
+(defn checker
+  "Writes the throughput report and checks for regressions against the baseline report, if given."
+  [opts]
+  (reify checker/Checker
+    (check [_ test history _]
+      (let [report (analyze history opts)
+            baseline (some-> (:throughput-baseline opts) slurp edn/read-string)
+            regressed (when baseline (regression report baseline (:regression-tolerance opts)))]
+        (spit (store/path! test "throughput.edn") (pr-str report))
+        (info "Max sustainable throughput" (:max-sustainable-ops report) "ops/s")
+        (assoc report
+          :valid? (and (some? (:max-sustainable-ops report)) (nil? regressed))
+          :regression regressed)))))
+
+(defn workload
+  "A workload to measure the maximum sustainable throughput, running without a rate limit. The nemesis waits until
+  the ramp holds its final level."
+  [opts]
+  (let [ramped (promise)]
+    {:client       (register/->ReplicatedStateMachineClient nil)
+     :checker      (checker opts)
+     :generator    (generator opts ramped)
+     :wrap-nemesis (partial hold-nemesis ramped)
+     :rate-limit?  false}))
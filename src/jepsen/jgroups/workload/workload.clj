@@ -1,15 +1,21 @@
 (ns jepsen.jgroups.workload.workload
   (:require
+    [jepsen.jgroups.workload.blob :as blob]
+    [jepsen.jgroups.workload.bounded :as bounded]
     [jepsen.jgroups.workload.register :as register]
     [jepsen.jgroups.workload.counter :as counter]
-    [jepsen.jgroups.workload.leader :as leader]))
+    [jepsen.jgroups.workload.leader :as leader]
+    [jepsen.jgroups.workload.throughput :as throughput]))
 
 (def all-workloads
-  #{:single-register :multi-register :counter :election})
+  #{:single-register :multi-register :blob-register :bounded-register :counter :election :throughput})
 
 (def workloads
   "A map of workloads to the corresponding constructor."
   {:single-register (partial register/workload (range 1))
    :multi-register  (partial register/workload (range))
+   :blob-register   blob/workload
+   :bounded-register bounded/workload
    :counter         counter/workload
-   :election        leader/workload})
+   :election        leader/workload
+   :throughput      throughput/workload})
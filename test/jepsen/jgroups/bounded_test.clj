@@ -0,0 +1,45 @@
+(ns jepsen.jgroups.bounded-test
+  (:require [clojure.test :refer :all]
+            [jepsen.checker :as checker]
+            [jepsen.jgroups.workload.bounded :as bounded]))
+
+(defn op
+  "Create an invocation and completion for the process, between the times in milliseconds."
+  [process f value start end]
+  [{:process process, :type :invoke, :f f, :value (when (= :write f) value), :time (* start 1000000)}
+   {:process process, :type :ok, :f f, :value value, :time (* end 1000000)}])
+
+(defn check
+  [max-staleness & ops]
+  (checker/check (bounded/checker max-staleness) {} (sort-by :time (apply concat ops)) {}))
+
+(deftest test-current-reads
+  (testing "Reads of the current value are not stale."
+    (let [result (check 100
+                        (op 0 :write 1 0 10)
+                        (op 1 :read nil 0 5)
+                        (op 1 :read 1 20 25))]
+      (is (:valid? result))
+      (is (= 0.0 (:max-staleness-ms result))))))
+
+(deftest test-stale-reads
+  (testing "Reads of a value overwritten before the bound are stale."
+    (let [ops [(op 0 :write 1 0 10)
+               (op 0 :write 2 20 30)
+               (op 1 :read 1 200 210)]]
+      (is (:valid? (apply check 500 ops)))
+      (let [result (apply check 100 ops)]
+        (is (not (:valid? result)))
+        (is (= 170.0 (:max-staleness-ms result)))
+        (is (= 1 (count (:stale-reads result))))))))
+
+(deftest test-concurrent-writes
+  (testing "A write concurrent with the write of the value read did not overwrite it."
+    (is (:valid? (check 100
+                        (op 0 :write 1 0 50)
+                        (op 2 :write 2 10 20)
+                        (op 1 :read 1 500 510))))))
+
+(deftest test-unknown-reads
+  (testing "Reads of a value never written are invalid."
+    (is (not (:valid? (check 100 (op 1 :read 3 0 5)))))))
@@ -0,0 +1,77 @@
+(ns jepsen.jgroups.scan-test
+  (:require [clojure.test :refer :all])
+  (:import (java.util List)
+           (org.jgroups JChannel)
+           (org.jgroups.protocols SHARED_LOOPBACK)
+           (org.jgroups.protocols.raft InMemoryLog RAFT)
+           (org.jgroups.raft.server ReplicatedMap)
+           (org.jgroups.stack Protocol)
+           (org.jgroups.util ByteArrayDataOutputStream Util)))
+
+(def put
+  "The PUT entry type of ReplicatedStateMachine."
+  1)
+
+(defn replicated-map
+  "A replicated map holding the keys, each mapped to itself. The channel is never connected, the entries are applied
+  directly."
+  [ks]
+  (let [raft (-> (RAFT.)
+                 (.raftId "a")
+                 (.members (List/of "a"))
+                 (.logClass (.getName InMemoryLog))
+                 (.logPrefix (str "scan-test-" (System/nanoTime))))
+        m (ReplicatedMap. (JChannel. ^"[Lorg.jgroups.stack.Protocol;" (into-array Protocol [(SHARED_LOOPBACK.) raft])))]
+    (doseq [k ks]
+      (let [out (ByteArrayDataOutputStream. 64)]
+        (.writeByte out put)
+        (Util/objectToStream k out)
+        (Util/objectToStream k out)
+        (.apply m (.buffer out) 0 (.position out) false)))
+    m))
+
+(defn pages
+  "Scans the range page by page, returning the keys of each page."
+  [m from to prefix limit]
+  (loop [after nil, acc []]
+    (let [page (.scan m from to prefix after limit)
+          acc (conj acc (vec (.keys page)))]
+      (if-let [next (.next page)]
+        (recur next acc)
+        acc))))
+
+(def ks
+  (map #(format "k%02d" %) (range 10)))
+
+(deftest test-paging
+  (testing "Pages cover the range in key order, with a partial last page."
+    (let [m (replicated-map (shuffle ks))]
+      (is (= [["k00" "k01" "k02" "k03"] ["k04" "k05" "k06" "k07"] ["k08" "k09"]]
+             (pages m nil nil nil 4)))
+      (is (= [["k02" "k03" "k04"] ["k05" "k06"]]
+             (pages m "k02" "k07" nil 3)))))
+
+  (testing "A limit equal to the number of entries returns a single page."
+    (let [m (replicated-map ks)]
+      (is (= [(vec ks)] (pages m nil nil nil 10)))
+      (is (= [["k03" "k04"]] (pages m "k03" "k05" nil 2)))))
+
+  (testing "A prefix scan stops at the first key without the prefix."
+    (let [m (replicated-map (concat ks ["j1" "l1"]))]
+      (is (= [["k00" "k01" "k02" "k03" "k04" "k05" "k06"] ["k07" "k08" "k09"]]
+             (pages m "k" nil "k" 7))))))
+
+(deftest test-empty
+  (testing "An empty range returns an empty last page."
+    (let [m (replicated-map ks)
+          page (.scan m "x" nil nil nil 5)]
+      (is (= 0 (.size page)))
+      (is (nil? (.next page)))
+      (is (= [[]] (pages m "k05" "k05" nil 5)))
+      (is (= [[]] (pages (replicated-map []) nil nil nil 5))))))
+
+(deftest test-limit
+  (testing "The limit must be positive."
+    (let [m (replicated-map ks)]
+      (is (thrown? IllegalArgumentException (.scan m nil nil nil nil 0)))
+      (is (thrown? IllegalArgumentException (.scan m nil nil nil nil -1))))))
@@ -0,0 +1,121 @@
+(ns jepsen.jgroups.session-test
+  (:require [clojure.test :refer :all])
+  (:import (org.jgroups.raft.server SessionTable SessionTable$Command)
+           (org.jgroups.util ByteArrayDataInputStream ByteArrayDataOutputStream UUID)))
+
+(defn command
+  "A command returning the result, counting its applications in the atom."
+  [applied result]
+  (reify SessionTable$Command
+    (apply [_]
+      (swap! applied inc)
+      result)))
+
+(defn apply!
+  "Applies the command with result `v` for the client and sequence, returning the result as a string."
+  ([table applied client sequence lowest-pending]
+   (apply! table applied client sequence lowest-pending (str sequence)))
+  ([table applied client sequence lowest-pending v]
+   (some-> (.apply table client sequence lowest-pending (command applied (.getBytes (str v))))
+           (String.))))
+
+(deftest test-dedup
+  (testing "A retry returns the result of the first application."
+    (let [table (SessionTable.)
+          applied (atom 0)
+          client (UUID/randomUUID)]
+      (is (= "first" (apply! table applied client 1 1 "first")))
+      (is (= "first" (apply! table applied client 1 1 "retry")))
+      (is (= 1 @applied))))
+
+  (testing "Sessions are independent."
+    (let [table (SessionTable.)
+          applied (atom 0)]
+      (is (= "a" (apply! table applied (UUID/randomUUID) 1 1 "a")))
+      (is (= "b" (apply! table applied (UUID/randomUUID) 1 1 "b")))
+      (is (= 2 @applied))
+      (is (= 2 (.size table))))))
+
+(deftest test-lowest-pending
+  (testing "A delayed duplicate of a request the client completed is not applied again."
+    (let [table (SessionTable.)
+          applied (atom 0)
+          client (UUID/randomUUID)]
+      ; Requests 1 and 2 are in flight together, then 1 completes and request 3 prunes its result.
+      (apply! table applied client 1 1)
+      (apply! table applied client 2 1)
+      (is (= "3" (apply! table applied client 3 2)))
+      (is (= 3 @applied))
+
+      ; The duplicate of 1 carries the lowest pending of when it was first sent.
+      (is (nil? (apply! table applied client 1 1 "stale")))
+      (is (= 3 @applied))
+
+      ; The duplicate of 2 still finds its result, and does not move the mark back.
+      (is (= "2" (apply! table applied client 2 1 "retry")))
+      (is (nil? (apply! table applied client 1 1 "stale")))
+      (is (= 3 @applied)))))
+
+(deftest test-eviction
+  (testing "The session applied least recently is evicted first."
+    (let [table (SessionTable. 2 8)
+          applied (atom 0)
+          [a b c] (repeatedly 3 #(UUID/randomUUID))]
+      (apply! table applied a 1 1)
+      (apply! table applied b 1 1)
+      ; Touching a makes b the least recent session.
+      (apply! table applied a 1 1)
+      (apply! table applied c 1 1)
+      (is (= 2 (.size table)))
+      (is (= 3 @applied))
+
+      (apply! table applied a 1 1)
+      (is (= 3 @applied))
+
+      (is (= "again" (apply! table applied b 1 1 "again")))
+      (is (= 4 @applied))))
+
+  (testing "A session keeps at most the given results."
+    (let [table (SessionTable. 2 2)
+          applied (atom 0)
+          client (UUID/randomUUID)]
+      (doseq [sequence (range 1 4)]
+        (apply! table applied client sequence 1))
+      (is (= 3 @applied))
+      (is (= "3" (apply! table applied client 3 1 "retry")))
+      (is (= "again" (apply! table applied client 1 1 "again")))
+      (is (= 4 @applied)))))
+
+(deftest test-round-trip
+  (testing "The table restored from its serialized form holds the same results."
+    (let [table (SessionTable.)
+          applied (atom 0)
+          [a b] (repeatedly 2 #(UUID/randomUUID))]
+      (apply! table applied a 1 1 "a1")
+      (apply! table applied a 2 1 "a2")
+      (.apply table b 1 1 (command applied nil))
+
+      (let [out (ByteArrayDataOutputStream. 256)
+            _ (.writeTo table out)
+            restored (SessionTable.)]
+        (.readFrom restored (ByteArrayDataInputStream. (.buffer out) 0 (.position out)))
+        (is (= 2 (.size restored)))
+        (is (= "a1" (apply! restored applied a 1 1 "retry")))
+        (is (= "a2" (apply! restored applied a 2 1 "retry")))
+        (is (nil? (apply! restored applied b 1 1 "retry")))
+        (is (= 3 @applied))))))
+
+(deftest test-round-trip-lowest-pending
+  (testing "The restored table still skips duplicates below the lowest pending sequence."
+    (let [table (SessionTable.)
+          applied (atom 0)
+          client (UUID/randomUUID)]
+      (apply! table applied client 1 1)
+      (apply! table applied client 2 2)
+
+      (let [out (ByteArrayDataOutputStream. 256)
+            _ (.writeTo table out)
+            restored (SessionTable.)]
+        (.readFrom restored (ByteArrayDataInputStream. (.buffer out) 0 (.position out)))
+        (is (nil? (apply! restored applied client 1 1 "stale")))
+        (is (= 2 @applied))))))
@@ -0,0 +1,82 @@
+(ns jepsen.jgroups.throughput-test
+  (:require [clojure.test :refer :all]
+            [jepsen.jgroups.workload.throughput :as throughput]))
+
+(defn ops-at
+  "Create a successful operation for each time in milliseconds, taking `latency` milliseconds."
+  [level latency times]
+  (->> times
+       (map-indexed (fn [i t]
+                      (let [done (* t 1000000)]
+                        [{:process i, :type :invoke, :f :read, :time (- done (* latency 1000000)), :level level}
+                         {:process i, :type :ok, :f :read, :time done, :level level}])))
+       (apply concat)))
+
+(defn held
+  "Tag the operations as holding the final level."
+  [ops]
+  (map #(assoc % :hold? true) ops))
+
+(deftest test-levels
+  (testing "Levels double up to the concurrency."
+    (is (= [1 2 4 8 10] (throughput/levels 10)))
+    (is (= [1 2 4] (throughput/levels 4)))))
+
+(deftest test-max-sustainable
+  (testing "Picks the highest throughput of a level within the latency SLO."
+    (let [history (concat (ops-at 1 5 (range 0 1000 10))
+                          (ops-at 2 50 (range 1000 2000 5))
+                          (ops-at 4 500 (range 2000 3000 2)))
+          report (throughput/analyze history {:latency-slo 100, :ramp-step 1, :nemesis-perf #{}})]
+      (is (= [true true false] (map :within-slo? (:levels report))))
+      (is (< 150 (:max-sustainable-ops report) 250)))))
+
+(deftest test-ramp
+  (testing "Doubles the level while within the SLO, and holds the last level within the SLO after a breach."
+    (let [ramped (promise)
+          ramp (throughput/generator {:concurrency 8, :ramp-step 1, :latency-slo 100} ramped)
+          doubled (throughput/next-level (assoc ramp :latencies [50000000]) 1000000000)
+          held (throughput/next-level (assoc doubled :latencies [500000000]) 2000000000)]
+      (is (= [1 2] [(:level ramp) (:level doubled)]))
+      (is (not (:holding? doubled)))
+      (is (:holding? held))
+      (is (= 1 (:level held)))
+      (is (realized? ramped))))
+
+  (testing "Holds the highest level after the last one."
+    (let [ramped (promise)
+          ramp (throughput/generator {:concurrency 1, :ramp-step 1, :latency-slo 100} ramped)
+          held (throughput/next-level ramp 1000000000)]
+      (is (:holding? held))
+      (is (= 1 (:level held)))
+      (is (realized? ramped)))))
+
+(deftest test-fault-recovery
+  (testing "Measures the drop during a fault and the time to recover after it."
+    (let [clients (held (concat (ops-at 1 5 (range 0 2000 10))
+                                (ops-at 1 5 (range 3000 6000 10))))
+          nemesis [{:process :nemesis, :type :info, :f :start-partition, :time 2000000000}
+                   {:process :nemesis, :type :info, :f :stop-partition, :time 2500000000}]
+          history (sort-by :time (concat clients nemesis))
+          perf #{{:name "partition", :start #{:start-partition}, :stop #{:stop-partition}}}
+          [fault] (:faults (throughput/analyze history {:latency-slo 100, :ramp-step 1, :nemesis-perf perf}))]
+      (is (= "partition" (:name fault)))
+      (is (= 1.0 (:drop fault)))
+      (is (<= 400 (:recovery-ms fault) 600))))
+
+  (testing "Ignores faults during the ramp, and the ramp levels ignore the hold."
+    (let [clients (concat (ops-at 1 5 (range 0 1000 10))
+                          (held (ops-at 2 5 (range 3000 4000 10))))
+          nemesis [{:process :nemesis, :type :info, :f :start-partition, :time 500000000}
+                   {:process :nemesis, :type :info, :f :stop-partition, :time 2000000000}]
+          history (sort-by :time (concat clients nemesis))
+          perf #{{:name "partition", :start #{:start-partition}, :stop #{:stop-partition}}}
+          report (throughput/analyze history {:latency-slo 100, :ramp-step 1, :nemesis-perf perf})]
+      (is (empty? (:faults report)))
+      (is (= [1] (map :level (:levels report))))
+      (is (= 2 (:hold-level report))))))
+
+(deftest test-regression
+  (testing "Flags a sustainable throughput below the tolerance."
+    (is (nil? (throughput/regression {:max-sustainable-ops 90} {:max-sustainable-ops 100} 0.2)))
+    (is (some? (throughput/regression {:max-sustainable-ops 70} {:max-sustainable-ops 100} 0.2)))))